@@ -0,0 +1,96 @@
+/*
+ * Copyright (C) 2016 Greg Lyons <greglyons50+github@gmail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package us.voxg.jewiusb;
+
+import java.util.concurrent.TimeUnit;
+import javax.sound.midi.SysexMessage;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the in-memory sysex codec: encoding a Config, decoding dumps and
+ * setting single parameters.  Run with "-prof gc" (the default for "ant
+ * bench") to see the bytes allocated per operation alongside the times.
+ * @author Greg Lyons <greglyons50+github@gmail.com>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ConfigBenchmark {
+    @Setup
+    public void setup() {
+        conf = new Config();
+        Config edited = new Config();
+        edited.setBreathGain(0x10);
+        edited.setTranspose(0x34);
+        messages = edited.toSysex();
+        dump = messages[1].getMessage();
+        buffer = new byte[Config.SYSEX_LENGTH];
+        encoder = new SysexEncoder();
+    }
+
+    @Benchmark
+    public SysexMessage[] toSysex() {
+        return conf.toSysex();
+    }
+
+    @Benchmark
+    public SysexMessage[] encoderEncode() {
+        return encoder.encode(conf);
+    }
+
+    @Benchmark
+    public int encodeInto() {
+        return conf.encodeInto(buffer, 0);
+    }
+
+    @Benchmark
+    public int fromSysexMessages() {
+        return conf.fromSysex(messages);
+    }
+
+    @Benchmark
+    public int fromSysexBytes() {
+        return conf.fromSysex(dump, 0, dump.length);
+    }
+
+    @Benchmark
+    public Config setValue() {
+        // Alternate values so that every call really changes the Config
+        counter ^= 1;
+        conf.setValue(2, 3, 0x20 + counter);
+        return conf;
+    }
+
+    private Config conf;
+    private SysexMessage[] messages;
+    private byte[] dump;
+    private byte[] buffer;
+    private SysexEncoder encoder;
+    private int counter;
+}
@@ -0,0 +1,102 @@
+/*
+ * Copyright (C) 2016 Greg Lyons <greglyons50+github@gmail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package us.voxg.jewiusb;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Random;
+
+/**
+ * Builds synthetic sysex streams for the benchmarks, from a single EWI-USB
+ * patch up to multi-megabyte dumps in which the EWI-USB banks are buried
+ * among messages for other manufacturers.  The streams are the same on
+ * every run so that results can be compared.
+ * @author Greg Lyons <greglyons50+github@gmail.com>
+ */
+public final class SysexCorpus {
+    private SysexCorpus() {
+    }
+
+    /**
+     * Builds a corpus by name: "single" is one EWI-USB patch (both banks);
+     * "mixed-N" (N in bytes, with an optional k or m suffix) is roughly N
+     * bytes of other manufacturers' messages and real-time bytes, with the
+     * EWI-USB banks at the very end so that a reader has to scan it all.
+     * @param name the corpus name
+     * @return the raw sysex bytes
+     * @throws IllegalArgumentException if the name is not recognized
+     */
+    public static byte[] build(String name) {
+        if (name.equals("single")) {
+            return patch(new Config());
+        }
+        if (name.startsWith("mixed-")) {
+            return mixed(parseSize(name.substring(6)), new Config());
+        }
+        throw new IllegalArgumentException("Unknown corpus " + name);
+    }
+
+    /**
+     * Encodes a configuration as a .syx file would hold it.
+     * @param c the configuration
+     * @return the raw sysex bytes
+     */
+    public static byte[] patch(Config c) {
+        byte[] b = new byte[Config.SYSEX_LENGTH];
+        c.encodeInto(b, 0);
+        return b;
+    }
+
+    /**
+     * Builds about size bytes of foreign sysex followed by a patch.
+     * @param size the approximate number of bytes before the patch
+     * @param c the configuration to end with
+     * @return the raw sysex bytes
+     */
+    public static byte[] mixed(int size, Config c) {
+        Random random = new Random(size);
+        ByteArrayOutputStream out = new ByteArrayOutputStream(size + 1024);
+        while (out.size() < size) {
+            out.write(0xF0);
+            out.write(FOREIGN_IDS[random.nextInt(FOREIGN_IDS.length)]);
+            int length = 4 + random.nextInt(random.nextBoolean() ? 32 : 1024);
+            for (int i = 0; i < length; i++) {
+                if (random.nextInt(256) == 0) {
+                    out.write(0xF8); // MIDI clock, legal inside sysex
+                }
+                out.write(random.nextInt(0x80));
+            }
+            out.write(0xF7);
+        }
+        byte[] p = patch(c);
+        out.write(p, 0, p.length);
+        return out.toByteArray();
+    }
+
+    private static int parseSize(String s) {
+        s = s.toLowerCase();
+        if (s.endsWith("k")) {
+            return Integer.parseInt(s.substring(0, s.length() - 1)) << 10;
+        }
+        if (s.endsWith("m")) {
+            return Integer.parseInt(s.substring(0, s.length() - 1)) << 20;
+        }
+        return Integer.parseInt(s);
+    }
+
+    // Roland, Korg, Yamaha, Kawai and universal non-real-time
+    private static final int[] FOREIGN_IDS = { 0x41, 0x42, 0x43, 0x40, 0x7E };
+}
@@ -0,0 +1,86 @@
+/*
+ * Copyright (C) 2016 Greg Lyons <greglyons50+github@gmail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package us.voxg.jewiusb;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import javax.sound.midi.InvalidMidiDataException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures loading and saving .syx files, over corpora from a single patch
+ * up to a multi-megabyte dump for many devices (see SysexCorpus).  The files
+ * stay in the OS cache, so this measures the parsing and copying rather
+ * than the disk.
+ * @author Greg Lyons <greglyons50+github@gmail.com>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SysexFileBenchmark {
+    @Param({"single", "mixed-64k", "mixed-4m"})
+    public String corpus;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        in = File.createTempFile("jewiusb-bench", ".syx");
+        out = File.createTempFile("jewiusb-bench", ".syx");
+        try (FileOutputStream s = new FileOutputStream(in)) {
+            s.write(SysexCorpus.build(corpus));
+        }
+        conf = new Config();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        in.delete();
+        out.delete();
+    }
+
+    @Benchmark
+    public Config loadSysexFile() throws IOException, InvalidMidiDataException {
+        conf.loadSysexFile(in);
+        return conf;
+    }
+
+    @Benchmark
+    public Config saveSysexFile() throws IOException {
+        conf.saveSysexFile(out);
+        return conf;
+    }
+
+    private File in;
+    private File out;
+    private Config conf;
+}
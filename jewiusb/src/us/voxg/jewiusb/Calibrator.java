@@ -0,0 +1,204 @@
+/*
+ * Copyright (C) 2016 Greg Lyons <greglyons50+github@gmail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package us.voxg.jewiusb;
+
+import javax.sound.midi.ShortMessage;
+
+/**
+ * Works out breath and bite gains that suit a player, from what the EWI-USB
+ * sends while they play a test phrase.  Breath and bite values, and how far
+ * the bite moves from one message to the next (vibrato), are counted in
+ * ValueHistograms, so a run can last as long as needed in constant memory.
+ * <p>
+ * The suggestions assume the EWI-USB's output scales roughly in proportion
+ * to each gain around its current setting: a gain is scaled so that the
+ * player's strongest playing (the 98th percentile, ignoring the resting
+ * level) reaches the top of the range, or backed off if too much of the
+ * phrase was pinned at 127.  They are a starting point for the sliders,
+ * not a measurement of the sensor.
+ * @author Greg Lyons <greglyons50+github@gmail.com>
+ */
+public class Calibrator implements PerformanceMonitor.Listener {
+    /**
+     * Gains suggested by a calibration run, each -1 if there wasn't enough
+     * playing to go on.
+     */
+    public static class Result {
+        Result(int breathGain, int biteGain, int biteAcGain, String summary) {
+            this.breathGain = breathGain;
+            this.biteGain = biteGain;
+            this.biteAcGain = biteAcGain;
+            this.summary = summary;
+        }
+
+        public int getBreathGain() {
+            return breathGain;
+        }
+
+        public int getBiteGain() {
+            return biteGain;
+        }
+
+        public int getBiteAcGain() {
+            return biteAcGain;
+        }
+
+        /**
+         * Applies the suggestions that could be made to a Config.
+         * @param c the Config to update
+         */
+        public void applyTo(Config c) {
+            if (breathGain >= 0) c.set(Parameter.BREATH_GAIN, breathGain);
+            if (biteGain >= 0) c.set(Parameter.BITE_GAIN, biteGain);
+            if (biteAcGain >= 0) c.set(Parameter.BITE_AC_GAIN, biteAcGain);
+        }
+
+        @Override
+        public String toString() {
+            return summary;
+        }
+
+        private final int breathGain;
+        private final int biteGain;
+        private final int biteAcGain;
+        private final String summary;
+    }
+
+    /**
+     * Creates a calibrator for the given controller assignments.
+     * @param breathSource what breath is sent as, in the encoding of the
+     * Breath CC 1 parameter (a CC number, or 127 for aftertouch)
+     * @param biteSource what bite is sent as, in the encoding of the Bite CC
+     * 1 parameter (a CC number; pitch bend modes can't be calibrated)
+     */
+    public Calibrator(int breathSource, int biteSource) {
+        breathCC = (breathSource > 0 && breathSource < 120) ? breathSource : -1;
+        breathPressure = (breathSource == 127);
+        biteCC = (biteSource > 0 && biteSource < 120) ? biteSource : -1;
+    }
+
+    /**
+     * Creates a calibrator for the controller assignments in a Config.
+     * @param c the configuration the EWI-USB is playing with
+     */
+    public Calibrator(Config c) {
+        this(c.get(Parameter.BREATH_CC1), c.get(Parameter.BITE_CC1));
+    }
+
+    @Override
+    public void event(int status, int data1, int data2, long micros) {
+        int command = status & 0xF0;
+        if (command == ShortMessage.CONTROL_CHANGE) {
+            if (data1 == breathCC) {
+                breath.add(data2);
+            }
+            if (data1 == biteCC) {
+                if (lastBite >= 0) {
+                    biteMotion.add(Math.abs(data2 - lastBite));
+                }
+                lastBite = data2;
+                bite.add(data2);
+            }
+        } else if (command == ShortMessage.CHANNEL_PRESSURE && breathPressure) {
+            breath.add(data1);
+        }
+    }
+
+    public ValueHistogram getBreath() {
+        return breath;
+    }
+
+    public ValueHistogram getBite() {
+        return bite;
+    }
+
+    public ValueHistogram getBiteMotion() {
+        return biteMotion;
+    }
+
+    /**
+     * Starts a new run.
+     */
+    public void clear() {
+        breath.clear();
+        bite.clear();
+        biteMotion.clear();
+        lastBite = -1;
+    }
+
+    /**
+     * Suggests gains from the playing seen so far.
+     * @param current the configuration the EWI-USB played with
+     * @return the suggestions
+     */
+    public Result suggest(Config.Snapshot current) {
+        StringBuilder sb = new StringBuilder();
+        int breathGain = suggest("Breath", breath, REST_LEVEL + 1, 127,
+                current.get(Parameter.BREATH_GAIN), sb);
+        int biteGain = suggest("Bite", bite, REST_LEVEL + 1, 127,
+                current.get(Parameter.BITE_GAIN), sb);
+        int biteAcGain = suggest("Bite vibrato", biteMotion, 1, VIBRATO_DEPTH,
+                current.get(Parameter.BITE_AC_GAIN), sb);
+        return new Result(breathGain, biteGain, biteAcGain, sb.toString());
+    }
+
+    /**
+     * Scales a gain so that the 98th percentile of the values above floor
+     * lands on target, and describes the outcome.
+     * @return the suggested gain, or -1 if there is too little data
+     */
+    private static int suggest(String name, ValueHistogram h, int floor,
+            int target, int gain, StringBuilder sb) {
+        long n = h.getCountFrom(floor);
+        sb.append(name).append(": ");
+        if (n < MIN_SAMPLES) {
+            sb.append("not enough playing (").append(n).append(" values)\n");
+            return -1;
+        }
+        int p50 = h.percentile(0.50, floor);
+        int p98 = h.percentile(0.98, floor);
+        double pinned = (double)h.getCount(127) / n;
+        double scale;
+        if (pinned > MAX_PINNED) {
+            // The real peak is hidden; aim the median lower instead
+            scale = (double)(target * 2 / 3) / Math.max(p50, 1);
+            scale = Math.min(scale, 1 - pinned / 2);
+        } else {
+            scale = (double)target / Math.max(p98, 1);
+        }
+        int suggested = (int)Math.round(gain * scale);
+        suggested = Math.max(1, Math.min(127, suggested));
+        sb.append(String.format("median %d, 98%% %d, %.0f%% at 127; gain %d -> %d%n",
+                p50, p98, pinned * 100, gain, suggested));
+        return suggested;
+    }
+
+    // Values at or below this are the sensor at rest, not playing
+    private static final int REST_LEVEL = 3;
+    // Bite movement per message that strong vibrato should produce
+    private static final int VIBRATO_DEPTH = 16;
+    private static final int MIN_SAMPLES = 100;
+    private static final double MAX_PINNED = 0.02;
+
+    private final int breathCC;
+    private final boolean breathPressure;
+    private final int biteCC;
+    private final ValueHistogram breath = new ValueHistogram();
+    private final ValueHistogram bite = new ValueHistogram();
+    private final ValueHistogram biteMotion = new ValueHistogram();
+    private int lastBite = -1;
+}
@@ -16,18 +16,27 @@
  */
 package us.voxg.jewiusb;
 
-import java.io.BufferedOutputStream;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.FileNotFoundException;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.util.Arrays;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
 import javax.sound.midi.SysexMessage;
 import javax.sound.midi.InvalidMidiDataException;
 
 /**
  * Represents a complete configuration for the Akai Professional EWI USB.
+ * <p>
+ * A Config may be shared between threads, e.g. the GUI editing it while
+ * dumps from the EWI-USB arrive on the Java Sound thread.  Its state is held
+ * in an immutable Snapshot that is replaced atomically on every change, so
+ * readers never lock and never see a bank half-updated, and writers never
+ * block one another.
  * @author Greg Lyons <greglyons50+github@gmail.com>
  */
 public class Config {
@@ -35,7 +44,7 @@ public class Config {
      * Creates a configuration with default parameters.
      */
     public Config() {
-        bank0 = new byte[] {
+        byte[] bank0 = new byte[] {
             (byte)0x40,
             (byte)0x40,
             (byte)0x40,
@@ -43,7 +52,7 @@ public class Config {
             (byte)0x08,
             (byte)0x7F
         };
-        bank2 = new byte[] {
+        byte[] bank2 = new byte[] {
             (byte)0x00,
             (byte)0x00,
             (byte)0x40,// (middle C)
@@ -56,10 +65,30 @@ public class Config {
             (byte)0x7F,
             (byte)0x7F
         };
+        // Everything starts out dirty
+        state = new AtomicReference<>(new Snapshot(bank0, bank2, ALL0, ALL2, 0));
+    }
+
+    /**
+     * Creates a copy of another configuration, including its record of
+     * which parameters have changed.
+     * @param c the configuration to copy
+     */
+    public Config(Config c) {
+        this(c.snapshot());
+    }
+
+    /**
+     * Creates a configuration holding a snapshot's values, including its
+     * record of which parameters have changed.
+     * @param s the snapshot to start from
+     */
+    public Config(Snapshot s) {
+        state = new AtomicReference<>(s);
     }
 
     public int getBreathGain() {
-        return (int)bank0[0];
+        return get(Parameter.BREATH_GAIN);
     }
 
     /**
@@ -68,13 +97,11 @@ public class Config {
      * @throws IllegalArgumentException if breathGain is out of range
      */
     public void setBreathGain(int breathGain) {
-        if (breathGain < 0 || breathGain > 0x7F)
-            throw new IllegalArgumentException("BreathGain must be 0-127");
-        bank0[0] = (byte)breathGain;
+        set(Parameter.BREATH_GAIN, breathGain);
     }
 
     public int getBiteGain() {
-        return (int)bank0[1];
+        return get(Parameter.BITE_GAIN);
     }
 
     /**
@@ -83,13 +110,11 @@ public class Config {
      * @throws IllegalArgumentException if biteGain is out of range
      */
     public void setBiteGain(int biteGain) {
-        if (biteGain < 0 || biteGain > 0x7F)
-            throw new IllegalArgumentException("BiteGain must be 0-127");
-        bank0[1] = (byte)biteGain;
+        set(Parameter.BITE_GAIN, biteGain);
     }
 
     public int getBiteAcGain() {
-        return (int)bank0[2];
+        return get(Parameter.BITE_AC_GAIN);
     }
 
     /**
@@ -98,13 +123,11 @@ public class Config {
      * @throws IllegalArgumentException if biteAcGain is out of range
      */
     public void setBiteAcGain(int biteAcGain) {
-        if (biteAcGain < 0 || biteAcGain > 0x7F)
-            throw new IllegalArgumentException("BiteAcGain must be 0-127");
-        bank0[2] = (byte)biteAcGain;
+        set(Parameter.BITE_AC_GAIN, biteAcGain);
     }
 
     public int getPitchBendGain() {
-        return (int)bank0[3];
+        return get(Parameter.PITCH_BEND_GAIN);
     }
 
     /**
@@ -113,13 +136,11 @@ public class Config {
      * @throws IllegalArgumentException if pitchBendGain is out of range
      */
     public void setPitchBendGain(int pitchBendGain) {
-        if (pitchBendGain < 0 || pitchBendGain > 0x7F)
-            throw new IllegalArgumentException("PitchBendGain must be 0-127");
-        bank0[3] = (byte)pitchBendGain;
+        set(Parameter.PITCH_BEND_GAIN, pitchBendGain);
     }
 
     public int getKeyDelay() {
-        return (int)bank0[4];
+        return get(Parameter.KEY_DELAY);
     }
 
     /**
@@ -128,13 +149,11 @@ public class Config {
      * @throws IllegalArgumentException if keyDelay is out of range
      */
     public void setKeyDelay(int keyDelay) {
-        if (keyDelay < 0 || keyDelay > 0xF)
-            throw new IllegalArgumentException("KeyDelay must be 0-15");
-        bank0[4] = (byte)keyDelay;
+        set(Parameter.KEY_DELAY, keyDelay);
     }
 
     public int getUnknown() {
-        return (int)bank0[5];
+        return get(Parameter.UNKNOWN);
     }
 
     /**
@@ -144,13 +163,11 @@ public class Config {
      * @throws IllegalArgumentException if unknown is out of range
      */
     public void setUnknown(int unknown) {
-        if (unknown < 0 || unknown > 0x7F)
-            throw new IllegalArgumentException("Unknown must be 0-127");
-        bank0[5] = (byte)unknown;
+        set(Parameter.UNKNOWN, unknown);
     }
 
     public int getMidiChannel() {
-        return (int)bank2[0];
+        return get(Parameter.MIDI_CHANNEL);
     }
 
     /**
@@ -160,13 +177,11 @@ public class Config {
      * @throws IllegalArgumentException if requested value is out of range
      */
     public void setMidiChannel(int midiChannel) {
-        if (midiChannel < 0 || midiChannel > 15)
-            throw new IllegalArgumentException("MidiChannel must be 0-15");
-        bank2[0] = (byte)midiChannel;
+        set(Parameter.MIDI_CHANNEL, midiChannel);
     }
 
     public int getFingering() {
-        return (int)bank2[1];
+        return get(Parameter.FINGERING);
     }
 
     /**
@@ -175,13 +190,11 @@ public class Config {
      * @throws IllegalArgumentException if requested value is out of range
      */
     public void setFingering(int fingering) {
-        if (fingering < 0 || fingering > 5)
-            throw new IllegalArgumentException("Fingering must be 0-5");
-        bank2[1] = (byte)fingering;
+        set(Parameter.FINGERING, fingering);
     }
 
     public int getTranspose() {
-        return (int)bank2[2];
+        return get(Parameter.TRANSPOSE);
     }
 
     /**
@@ -191,13 +204,11 @@ public class Config {
      * @throws IllegalArgumentException if requested value is out of range
      */
     public void setTranspose(int transpose) {
-        if (transpose < 0x22 || transpose > 0x5D)
-            throw new IllegalArgumentException("Transpose must be 34-93");
-        bank2[2] = (byte)transpose;
+        set(Parameter.TRANSPOSE, transpose);
     }
 
     public int getVelocity() {
-        return (int)bank2[3];
+        return get(Parameter.VELOCITY);
     }
 
     /**
@@ -209,13 +220,11 @@ public class Config {
      * @throws IllegalArgumentException if requested value is out of range
      */
     public void setVelocity(int velocity) {
-        if (velocity < 0 || velocity > 0x7F)
-            throw new IllegalArgumentException("Velocity must be 0-127");
-        bank2[3] = (byte)velocity;
+        set(Parameter.VELOCITY, velocity);
     }
 
     public int getBreathCC1() {
-        return (int)bank2[4];
+        return get(Parameter.BREATH_CC1);
     }
 
     /**
@@ -225,13 +234,11 @@ public class Config {
      * @throws IllegalArgumentException if requested value is out of range
      */
     public void setBreathCC1(int breathCC1) {
-        if (breathCC1 < 0 || breathCC1 > 0x7F)
-            throw new IllegalArgumentException("BreathCC1 must be 0-127");
-        bank2[4] = (byte)breathCC1;
+        set(Parameter.BREATH_CC1, breathCC1);
     }
 
     public int getBreathCC2() {
-        return (int)bank2[5];
+        return get(Parameter.BREATH_CC2);
     }
 
     /**
@@ -241,13 +248,11 @@ public class Config {
      * @throws IllegalArgumentException if requested value is out of range
      */
     public void setBreathCC2(int breathCC2) {
-        if (breathCC2 < 0 || breathCC2 > 0x7F)
-            throw new IllegalArgumentException("BreathCC2 must be 0-127");
-        bank2[5] = (byte)breathCC2;
+        set(Parameter.BREATH_CC2, breathCC2);
     }
 
     public int getUnknown2() {
-        return (int)bank2[6];
+        return get(Parameter.UNKNOWN2);
     }
 
     /**
@@ -257,13 +262,11 @@ public class Config {
      * @throws IllegalArgumentException if requested value is out of range
      */
     public void setUnknown2(int unknown2) {
-        if (unknown2 < 0 || unknown2 > 0x7F)
-            throw new IllegalArgumentException("Unknown2 must be 0-127");
-        bank2[6] = (byte)unknown2;
+        set(Parameter.UNKNOWN2, unknown2);
     }
 
     public int getBiteCC1() {
-        return (int)bank2[7];
+        return get(Parameter.BITE_CC1);
     }
 
     /**
@@ -273,13 +276,11 @@ public class Config {
      * @throws IllegalArgumentException if requested value is out of range
      */
     public void setBiteCC1(int biteCC1) {
-        if (biteCC1 < 0 || biteCC1 > 0x7F)
-            throw new IllegalArgumentException("BiteCC1 must be 0-127");
-        bank2[7] = (byte)biteCC1;
+        set(Parameter.BITE_CC1, biteCC1);
     }
 
     public int getBiteCC2() {
-        return (int)bank2[8];
+        return get(Parameter.BITE_CC2);
     }
 
     /**
@@ -289,13 +290,11 @@ public class Config {
      * @throws IllegalArgumentException if requested value is out of range
      */
     public void setBiteCC2(int biteCC2) {
-        if (biteCC2 < 0 || biteCC2 > 0x7F)
-            throw new IllegalArgumentException("BiteCC2 must be 0-127");
-        bank2[8] = (byte)biteCC2;
+        set(Parameter.BITE_CC2, biteCC2);
     }
 
     public int getPitchBendUp() {
-        return (int)bank2[9];
+        return get(Parameter.PITCH_BEND_UP);
     }
 
     /**
@@ -305,13 +304,11 @@ public class Config {
      * @throws IllegalArgumentException if requested value is out of range
      */
     public void setPitchBendUp(int pitchBendUp) {
-        if (pitchBendUp < 0 || pitchBendUp > 0x7F)
-            throw new IllegalArgumentException("PitchBendUp must be 0-127");
-        bank2[9] = (byte)pitchBendUp;
+        set(Parameter.PITCH_BEND_UP, pitchBendUp);
     }
 
     public int getPitchBendDown() {
-        return (int)bank2[0x0A];
+        return get(Parameter.PITCH_BEND_DOWN);
     }
 
     /**
@@ -321,9 +318,7 @@ public class Config {
      * @throws IllegalArgumentException if requested value is out of range
      */
     public void setPitchBendDown(int pitchBendDown) {
-        if (pitchBendDown < 0 || pitchBendDown > 0x7F)
-            throw new IllegalArgumentException("PitchBendDown must be 0-127");
-        bank2[0x0A] = (byte)pitchBendDown;
+        set(Parameter.PITCH_BEND_DOWN, pitchBendDown);
     }
     
     /**
@@ -335,73 +330,209 @@ public class Config {
      * @param val the value
      */
     public void setValue(int msb, int lsb, int val) {
-        //System.out.println("setValue("+msb+", "+lsb+", "+val+")");
-        if (msb == 0) {
-            switch (lsb) {
-                case 0:
-                    setBreathGain(val);
-                    return;
-                case 1:
-                    setBiteGain(val);
-                    return;
-                case 2:
-                    setBiteAcGain(val);
-                    return;
-                case 3:
-                    setPitchBendGain(val);
-                    return;
-                case 4:
-                    setKeyDelay(val);
-                    return;
-                case 5:
-                    setUnknown(val);
-                    return;
-                default:
-                    throw new IllegalArgumentException("LSB out of range");
-            }
-        }
-        if (msb == 2) {
-            switch (lsb) {
-                case 0:
-                    setMidiChannel(val);
-                    return;
-                case 1:
-                    setFingering(val);
-                    return;
-                case 2:
-                    setTranspose(val);
-                    return;
-                case 3:
-                    setVelocity(val);
-                    return;
-                case 4:
-                    setBreathCC1(val);
-                    return;
-                case 5:
-                    setBreathCC2(val);
-                    return;
-                case 6:
-                    setUnknown2(val);
-                    return;
-                case 7:
-                    setBiteCC1(val);
-                    return;
-                case 8:
-                    setBiteCC2(val);
-                    return;
-                case 9:
-                    setPitchBendUp(val);
-                    return;
-                case 10:
-                    setPitchBendDown(val);
-                    return;
-                default:
-                    throw new IllegalArgumentException("LSB out of range");
-            }
-        }
-        throw new IllegalArgumentException("MSB out of range");
+        set(Parameter.at(msb, lsb), val);
+    }
+
+    /**
+     * Returns the value of a configuration parameter.
+     * @param p the parameter
+     * @return its current value
+     */
+    public int get(Parameter p) {
+        return state.get().get(p);
+    }
+
+    /**
+     * Changes the value of a configuration parameter.
+     * @param p the parameter
+     * @param val the new value
+     * @throws IllegalArgumentException if val is out of range for p
+     */
+    public void set(Parameter p, int val) {
+        Snapshot s, n;
+        do {
+            s = state.get();
+            n = s.with(p, val);
+        } while (n != s && !state.compareAndSet(s, n));
+    }
+
+    /**
+     * Returns every parameter value, and which have changed, as of now.  The
+     * snapshot never changes, so it can be read (or encoded) at leisure from
+     * any thread without seeing a half-applied dump or edit.
+     * @return the current snapshot
+     */
+    public Snapshot snapshot() {
+        return state.get();
+    }
+
+    /**
+     * Returns the version of the current snapshot.  Every change to this
+     * Config increases it, so a reader can tell cheaply whether anything has
+     * happened since it last looked.
+     * @return the current version
+     */
+    public long getVersion() {
+        return state.get().getVersion();
+    }
+
+    /**
+     * Installs a new snapshot if the current one is still expect, for
+     * writers that make several changes as one, e.g.
+     * <pre>
+     * Config.Snapshot s, n;
+     * do {
+     *     s = conf.snapshot();
+     *     n = s.with(Parameter.BITE_CC1, 0).with(Parameter.BITE_CC2, 0);
+     * } while (!conf.compareAndSet(s, n));
+     * </pre>
+     * @param expect the snapshot the update was derived from
+     * @param update the new snapshot
+     * @return true if update was installed, false if another change got in
+     * first (the caller should derive a new update and try again)
+     * @throws IllegalArgumentException if update is not derived from expect
+     */
+    public boolean compareAndSet(Snapshot expect, Snapshot update) {
+        if (update != expect && update.version <= expect.version)
+            throw new IllegalArgumentException("Snapshot is out of date");
+        return state.compareAndSet(expect, update);
+    }
+
+    /**
+     * Tells whether any parameter has changed since the last markClean().
+     * @return true if the EWI-USB may be out of date
+     */
+    public boolean isDirty() {
+        return state.get().isDirty();
+    }
+
+    /**
+     * Records that the EWI-USB now holds every value in this Config, e.g.
+     * after a successful write.
+     */
+    public void markClean() {
+        setDirty(0, 0);
+    }
+
+    /**
+     * Records that the EWI-USB now holds the values in the given banks, e.g.
+     * after they were received from the device.
+     * @param banks a bit set of banks (bit n for MSB n), as returned by
+     * fromSysex()
+     */
+    public void markClean(int banks) {
+        Snapshot s, n;
+        do {
+            s = state.get();
+            n = s.withDirty(((banks & 1) != 0) ? 0 : s.dirty0,
+                    ((banks & 4) != 0) ? 0 : s.dirty2);
+        } while (n != s && !state.compareAndSet(s, n));
+    }
+
+    /**
+     * Records that the EWI-USB now holds the values of a snapshot that was
+     * sent to it.  Parameters changed since the snapshot was taken stay
+     * dirty, so an edit made while a write is being prepared is never lost.
+     * @param sent the snapshot whose changed parameters were sent
+     */
+    public void markClean(Snapshot sent) {
+        Snapshot s, n;
+        do {
+            s = state.get();
+            n = s.withDirty(
+                    s.dirty0 & ~(sent.dirty0 & ~diff(s.bank0, sent.bank0)),
+                    s.dirty2 & ~(sent.dirty2 & ~diff(s.bank2, sent.bank2)));
+        } while (n != s && !state.compareAndSet(s, n));
     }
-    //test
+
+    /**
+     * Records that the EWI-USB state is unknown, so that the next delta
+     * write sends everything.
+     */
+    public void markDirty() {
+        setDirty(ALL0, ALL2);
+    }
+
+    /**
+     * Marks individual parameters of one bank as changed, so that the next
+     * toDirtySysex() includes them.
+     * @param msb the address MSB of the bank (0 or 2)
+     * @param lsbs a bit set of parameters (bit n for LSB n)
+     * @throws IllegalArgumentException if msb is out of range
+     */
+    public void markDirty(int msb, int lsbs) {
+        if (msb != 0 && msb != 2)
+            throw new IllegalArgumentException("MSB out of range");
+        Snapshot s, n;
+        do {
+            s = state.get();
+            n = (msb == 0)
+                    ? s.withDirty(s.dirty0 | (lsbs & ALL0), s.dirty2)
+                    : s.withDirty(s.dirty0, s.dirty2 | (lsbs & ALL2));
+        } while (n != s && !state.compareAndSet(s, n));
+    }
+
+    private void setDirty(int dirty0, int dirty2) {
+        Snapshot s, n;
+        do {
+            s = state.get();
+            n = s.withDirty(dirty0, dirty2);
+        } while (n != s && !state.compareAndSet(s, n));
+    }
+
+    /**
+     * Compares one bank of this configuration with another.
+     * @param c the configuration to compare with
+     * @param msb the address MSB of the bank (0 or 2)
+     * @return a bit set of the parameters that differ (bit n for LSB n)
+     * @throws IllegalArgumentException if msb is out of range
+     */
+    public int differences(Config c, int msb) {
+        return state.get().differences(c.snapshot(), msb);
+    }
+
+    /**
+     * Provides the smallest set of SysexMessages that brings the EWI-USB up
+     * to date with the parameters changed since the last markClean().
+     * Changed parameters that are close together are sent in one message
+     * when that is shorter than sending them separately.  (The EWI-USB must
+     * be put into sysex mode before sending.)
+     * @return sysex messages to send to the EWI-USB, possibly none
+     */
+    public SysexMessage[] toDirtySysex() {
+        return state.get().toDirtySysex();
+    }
+
+    /**
+     * Writes the complete configuration as raw sysex (the same bytes as
+     * toSysex()) into a caller-supplied array, without allocating.
+     * @param b the array to write into
+     * @param off where in b to start writing
+     * @return the number of bytes written, always SYSEX_LENGTH
+     * @throws IndexOutOfBoundsException if b is too small
+     */
+    public int encodeInto(byte[] b, int off) {
+        return state.get().encodeInto(b, off);
+    }
+
+    /**
+     * Writes the complete configuration as raw sysex (the same bytes as
+     * toSysex()) at the buffer's position, without allocating.
+     * @param buf the buffer to write into
+     * @throws BufferOverflowException if fewer than SYSEX_LENGTH bytes remain
+     */
+    public void encodeInto(ByteBuffer buf) {
+        state.get().encodeInto(buf);
+    }
+
+    /**
+     * Returns the number of parameters in a bank.
+     * @throws IllegalArgumentException if msb is out of range
+     */
+    static int bankLength(int msb) {
+        return Parameter.bank(msb).length;
+    }
+
     /**
      * Provides an array of SysexMessages that describe the current
      * configuration, for sending to the EWI-USB.  (The EWI-USB must be put
@@ -409,42 +540,7 @@ public class Config {
      * @return sysex messages to send to the EWI-USB
      */
     public SysexMessage[] toSysex() {
-        byte[] m1 = {
-            (byte)0xf0, (byte)0x47, (byte)0x7f,
-            (byte)0x6d, (byte)0, (byte)0, (byte)6,
-            bank0[0],
-            bank0[1],
-            bank0[2],
-            bank0[3],
-            bank0[4],
-            bank0[5],
-            (byte)0xf7
-        };
-        byte[] m2 = {
-            (byte)0xf0, (byte)0x47, (byte)0x7f,
-            (byte)0x6d, (byte)2, (byte)0, (byte)11,
-            bank2[0],
-            bank2[1],
-            bank2[2],
-            bank2[3],
-            bank2[4],
-            bank2[5],
-            bank2[6],
-            bank2[7],
-            bank2[8],
-            bank2[9],
-            bank2[10],
-            (byte)0xf7
-        };
-        try {
-            SysexMessage[] messages = {
-                new SysexMessage(m1, m1.length),
-                new SysexMessage(m2, m2.length)
-            };
-            return messages;
-        } catch (InvalidMidiDataException e) {
-            return new SysexMessage[] {};
-        }
+        return state.get().toSysex();
     }
     
     /**
@@ -453,24 +549,165 @@ public class Config {
      * ignored, but EWI-USB messages with invalid data will result in an
      * IllegalArguementException.
      * @param s the messages
+     * @return a bit set of the banks that were applied (bit n set for MSB n)
      */
-    public void fromSysex(SysexMessage[] s) {
+    public int fromSysex(SysexMessage[] s) {
+        int banks = 0;
         for (SysexMessage m : s) {
-            byte[] b = m.getData();
-            if ((b.length < 7) || (m.getStatus() != 0xF0) ||
-                (b[0] != 0x47) || (b[2] != 0x6d)) {
-                continue;
-            }
-            int msb = (int)b[3];
-            int lsb = (int)b[4];
-            int length = (int)b[5];
-            if (b.length < (6+length)) {
-                continue;
+            // getMessage() copies, but Java Sound offers no other way in
+            byte[] b = m.getMessage();
+            banks |= fromSysex(b, 0, b.length);
+        }
+        return banks;
+    }
+
+    /**
+     * Changes the values in this Config object to match the raw sysex
+     * message (starting with F0) found in b[off] to b[off + len - 1].
+     * Nothing is copied but the bank that changes.  A message for another
+     * device, or an EWI-USB message without bank data (such as a bank
+     * request), is ignored; an EWI-USB bank with invalid data results in an
+     * IllegalArgumentException and leaves this Config unchanged.
+     * @param b the array holding the message
+     * @param off where the message starts
+     * @param len the length of the message, including F0 and F7
+     * @return a bit set of the banks that were applied (bit n set for MSB n)
+     */
+    public int fromSysex(byte[] b, int off, int len) {
+        return apply(b, off, len, false);
+    }
+
+    /**
+     * Applies a dump received from the EWI-USB, as fromSysex(byte[], int,
+     * int) does, and marks the banks it holds clean in the same update.  (An
+     * edit made on another thread between the two steps would otherwise be
+     * recorded as already on the device.)
+     * @param b the array holding the message
+     * @param off where the message starts
+     * @param len the length of the message, including F0 and F7
+     * @return a bit set of the banks that were applied (bit n set for MSB n)
+     */
+    public int fromDump(byte[] b, int off, int len) {
+        return apply(b, off, len, true);
+    }
+
+    private int apply(byte[] b, int off, int len, boolean clean) {
+        if ((len < 8) || ((b[off] & 0xFF) != 0xF0) ||
+            (b[off + 1] != 0x47) || (b[off + 3] != 0x6d)) {
+            return 0;
+        }
+        int msb = (int)b[off + 4];
+        int lsb = (int)b[off + 5];
+        int length = (int)b[off + 6];
+        if (len < (7+length) || !isBank(msb, length)) {
+            return 0;
+        }
+        Snapshot s, n;
+        do {
+            s = state.get();
+            n = s.withRange(msb, lsb, b, off + 7, length);
+            if (clean) {
+                n = n.withDirty((msb == 0) ? 0 : n.dirty0,
+                        (msb == 2) ? 0 : n.dirty2);
             }
-            for (int i = 0; i < length; i++) {
-                setValue(msb, lsb + i, b[6+i]);
+        } while (n != s && !state.compareAndSet(s, n));
+        return 1 << msb;
+    }
+
+    /**
+     * Changes the values in this Config object to match the raw sysex
+     * message (starting with F0) between the buffer's position and limit,
+     * as fromSysex(byte[], int, int) does.  The buffer's position is not
+     * changed.
+     * @param buf the buffer holding the message
+     * @return a bit set of the banks that were applied (bit n set for MSB n)
+     */
+    public int fromSysex(ByteBuffer buf) {
+        if (buf.hasArray()) {
+            return fromSysex(buf.array(), buf.arrayOffset() + buf.position(),
+                    buf.remaining());
+        }
+        int p = buf.position();
+        if ((buf.remaining() < 8) || ((buf.get(p) & 0xFF) != 0xF0) ||
+            (buf.get(p + 1) != 0x47) || (buf.get(p + 3) != 0x6d)) {
+            return 0;
+        }
+        int msb = (int)buf.get(p + 4);
+        int lsb = (int)buf.get(p + 5);
+        int length = (int)buf.get(p + 6);
+        if (buf.remaining() < (7+length) || !isBank(msb, length)) {
+            return 0;
+        }
+        Snapshot s, n;
+        do {
+            s = state.get();
+            n = s.withRange(msb, lsb, buf, p + 7, length);
+        } while (n != s && !state.compareAndSet(s, n));
+        return 1 << msb;
+    }
+
+    /**
+     * Tells whether an EWI-USB message carries bank data, as opposed to
+     * being a bank request (which has no data) or for an address we don't
+     * know.  Only bank data is applied, and only bad bank data throws.
+     */
+    private static boolean isBank(int msb, int length) {
+        return length != 0 && (msb == 0 || msb == 2);
+    }
+
+    /**
+     * Sets a run of consecutive parameters in one bank at once.  Every value
+     * is validated before any is applied, so on an IllegalArgumentException
+     * this Config is left unchanged; otherwise readers see all of the new
+     * values or none of them.
+     * @param msb the address MSB of the bank (0 or 2)
+     * @param lsb the address LSB of the first parameter
+     * @param values the array holding the new values
+     * @param off where in values the first value is
+     * @param length the number of parameters to set
+     * @throws IllegalArgumentException if an address or value is out of range
+     */
+    public void setRange(int msb, int lsb, byte[] values, int off, int length) {
+        Snapshot s, n;
+        do {
+            s = state.get();
+            n = s.withRange(msb, lsb, values, off, length);
+        } while (n != s && !state.compareAndSet(s, n));
+    }
+
+    /**
+     * Sets a run of consecutive parameters in one bank at once, as
+     * setRange(msb, lsb, values, 0, values.length) does.
+     * @param msb the address MSB of the bank (0 or 2)
+     * @param lsb the address LSB of the first parameter
+     * @param values the new values
+     * @throws IllegalArgumentException if an address or value is out of range
+     */
+    public void setRange(int msb, int lsb, byte[] values) {
+        setRange(msb, lsb, values, 0, values.length);
+    }
+
+    private static void checkRange(int msb, int lsb, int length) {
+        Parameter[] bank = Parameter.bank(msb);
+        if (lsb < 0 || length < 0 || lsb + length > bank.length)
+            throw new IllegalArgumentException("LSB out of range");
+    }
+
+    private static void checkValue(int msb, int lsb, int val) {
+        Parameter.bank(msb)[lsb].check(val);
+    }
+
+    /**
+     * Returns a bit set of the positions at which two banks differ.
+     */
+    private static int diff(byte[] a, byte[] b) {
+        int diff = 0;
+        for (int i = 0; i < a.length; i++) {
+            if (a[i] != b[i]) {
+                diff |= 1 << i;
             }
         }
+        return diff;
     }
     
     /**
@@ -485,29 +722,9 @@ public class Config {
      */
     public void loadSysexFile(File f) throws FileNotFoundException, IOException,
                                             InvalidMidiDataException {
-        try (FileInputStream fis = new FileInputStream(f)) {
-            if (! f.isFile()) { throw new IOException("Not a SYSEX file"); }
-            long size = f.length();
-            if (size > Integer.MAX_VALUE) {
-                throw new IOException("Crazy file size, man");
-            }
-            byte[] barray = java.nio.file.Files.readAllBytes(f.toPath());
-            boolean sysexInProgress = false;
-            int counter = 0;
-            int startOfSysex = -1;
-            for (byte b : barray) {
-                if (b == 0xf7 && sysexInProgress) {
-                    byte[] m=Arrays.copyOfRange(barray,startOfSysex,counter+1);
-                    SysexMessage message = new SysexMessage(m, m.length);
-                    fromSysex(new SysexMessage[] { message });
-                    sysexInProgress = false;
-                    startOfSysex = -1;
-                } else if (b == 0xf0) {
-                    sysexInProgress = true;
-                    startOfSysex = counter;
-                }
-                counter++;
-            }
+        if (! f.isFile()) { throw new IOException("Not a SYSEX file"); }
+        try (FileChannel ch = FileChannel.open(f.toPath(), StandardOpenOption.READ)) {
+            new SysexReader(ch).read(this);
         }
     }
     
@@ -518,15 +735,342 @@ public class Config {
      * @throws IOException
      */
     public void saveSysexFile(File f) throws IOException {
-        try (BufferedOutputStream bos = new BufferedOutputStream(new FileOutputStream(f))) {
-            SysexMessage[] ms = toSysex();
-            for (SysexMessage m : ms) {
-                bos.write(m.getStatus());
-                bos.write(m.getData());
+        ByteBuffer buf = ByteBuffer.allocate(SYSEX_LENGTH);
+        encodeInto(buf);
+        buf.flip();
+        try (FileChannel ch = FileChannel.open(f.toPath(),
+                StandardOpenOption.WRITE, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            while (buf.hasRemaining()) {
+                ch.write(buf);
             }
         }
     }
+
+    /**
+     * Every parameter value of a Config, and which of them have changed, at
+     * one moment.  A snapshot never changes once published: the with...
+     * methods return a new one with a higher version, leaving this one (and
+     * anyone still reading it) alone.  Banks are shared between snapshots
+     * until one of them changes.
+     */
+    public static final class Snapshot {
+        private Snapshot(byte[] bank0, byte[] bank2, int dirty0, int dirty2,
+                long version) {
+            this.bank0 = bank0;
+            this.bank2 = bank2;
+            this.dirty0 = dirty0;
+            this.dirty2 = dirty2;
+            this.version = version;
+        }
+
+        /**
+         * Tells where this snapshot comes in the history of its Config.
+         * @return a number higher than that of every earlier snapshot
+         */
+        public long getVersion() {
+            return version;
+        }
+
+        /**
+         * Returns the value of a configuration parameter.
+         * @param p the parameter
+         * @return its value in this snapshot
+         */
+        public int get(Parameter p) {
+            return (int)bank(p.getMsb())[p.getLsb()];
+        }
+
+        /**
+         * Tells whether any parameter had changed since the last
+         * markClean() when this snapshot was taken.
+         * @return true if the EWI-USB may be out of date
+         */
+        public boolean isDirty() {
+            return dirty0 != 0 || dirty2 != 0;
+        }
+
+        /**
+         * Compares one bank of this snapshot with another.
+         * @param s the snapshot to compare with
+         * @param msb the address MSB of the bank (0 or 2)
+         * @return a bit set of the parameters that differ (bit n for LSB n)
+         * @throws IllegalArgumentException if msb is out of range
+         */
+        public int differences(Snapshot s, int msb) {
+            return diff(bank(msb), s.bank(msb));
+        }
+
+        /**
+         * Derives a snapshot with one parameter changed.
+         * @param p the parameter
+         * @param val the new value
+         * @return the new snapshot, or this one if p already has that value
+         * @throws IllegalArgumentException if val is out of range for p
+         */
+        public Snapshot with(Parameter p, int val) {
+            p.check(val);
+            int msb = p.getMsb();
+            int lsb = p.getLsb();
+            byte[] bank = bank(msb);
+            if (bank[lsb] == (byte)val) {
+                return this;
+            }
+            bank = bank.clone();
+            bank[lsb] = (byte)val;
+            return (msb == 0)
+                    ? new Snapshot(bank, bank2, dirty0 | (1 << lsb), dirty2,
+                            version + 1)
+                    : new Snapshot(bank0, bank, dirty0, dirty2 | (1 << lsb),
+                            version + 1);
+        }
+
+        /**
+         * Derives a snapshot with a run of consecutive parameters in one
+         * bank changed.  Every value is validated first.
+         * @param msb the address MSB of the bank (0 or 2)
+         * @param lsb the address LSB of the first parameter
+         * @param values the array holding the new values
+         * @param off where in values the first value is
+         * @param length the number of parameters to set
+         * @return the new snapshot, or this one if nothing would change
+         * @throws IllegalArgumentException if an address or value is out of
+         * range
+         */
+        public Snapshot withRange(int msb, int lsb, byte[] values, int off,
+                int length) {
+            checkRange(msb, lsb, length);
+            for (int i = 0; i < length; i++) {
+                checkValue(msb, lsb + i, values[off + i]);
+            }
+            byte[] bank = bank(msb);
+            int changed = 0;
+            for (int i = 0; i < length; i++) {
+                if (bank[lsb + i] != values[off + i]) {
+                    changed |= 1 << (lsb + i);
+                }
+            }
+            if (changed == 0) {
+                return this;
+            }
+            bank = bank.clone();
+            System.arraycopy(values, off, bank, lsb, length);
+            return (msb == 0)
+                    ? new Snapshot(bank, bank2, dirty0 | changed, dirty2,
+                            version + 1)
+                    : new Snapshot(bank0, bank, dirty0, dirty2 | changed,
+                            version + 1);
+        }
+
+        /**
+         * Derives a snapshot with a run of consecutive parameters changed,
+         * as withRange(int, int, byte[], int, int) does, reading the values
+         * from a buffer without moving its position.
+         */
+        Snapshot withRange(int msb, int lsb, ByteBuffer values, int index,
+                int length) {
+            checkRange(msb, lsb, length);
+            for (int i = 0; i < length; i++) {
+                checkValue(msb, lsb + i, values.get(index + i));
+            }
+            byte[] bank = bank(msb);
+            int changed = 0;
+            for (int i = 0; i < length; i++) {
+                if (bank[lsb + i] != values.get(index + i)) {
+                    changed |= 1 << (lsb + i);
+                }
+            }
+            if (changed == 0) {
+                return this;
+            }
+            bank = bank.clone();
+            for (int i = 0; i < length; i++) {
+                bank[lsb + i] = values.get(index + i);
+            }
+            return (msb == 0)
+                    ? new Snapshot(bank, bank2, dirty0 | changed, dirty2,
+                            version + 1)
+                    : new Snapshot(bank0, bank, dirty0, dirty2 | changed,
+                            version + 1);
+        }
+
+        /**
+         * Provides the smallest set of SysexMessages that brings the
+         * EWI-USB up to date with the parameters changed in this snapshot,
+         * as Config.toDirtySysex() does.
+         * @return sysex messages to send to the EWI-USB, possibly none
+         */
+        public SysexMessage[] toDirtySysex() {
+            List<SysexMessage> messages = new ArrayList<>();
+            int[] runs = new int[2 * BANK2_LENGTH];
+            try {
+                for (int msb = 0; msb <= 2; msb += 2) {
+                    int n = dirtyRuns(msb, runs);
+                    for (int i = 0; i < n; i++) {
+                        messages.add(message(msb, runs[2*i], runs[2*i + 1]));
+                    }
+                }
+            } catch (InvalidMidiDataException e) {
+                return new SysexMessage[] {};
+            }
+            return messages.toArray(new SysexMessage[messages.size()]);
+        }
+
+        /**
+         * Provides the complete configuration as SysexMessages, as
+         * Config.toSysex() does.
+         * @return sysex messages to send to the EWI-USB
+         */
+        public SysexMessage[] toSysex() {
+            try {
+                SysexMessage[] messages = {
+                    message(0, 0, bank0.length),
+                    message(2, 0, bank2.length)
+                };
+                return messages;
+            } catch (InvalidMidiDataException e) {
+                return new SysexMessage[] {};
+            }
+        }
+
+        /**
+         * Writes the complete configuration as raw sysex into a
+         * caller-supplied array, as Config.encodeInto(byte[], int) does.
+         * @param b the array to write into
+         * @param off where in b to start writing
+         * @return the number of bytes written, always SYSEX_LENGTH
+         * @throws IndexOutOfBoundsException if b is too small
+         */
+        public int encodeInto(byte[] b, int off) {
+            if (off < 0 || b.length - off < SYSEX_LENGTH)
+                throw new IndexOutOfBoundsException("Need " + SYSEX_LENGTH + " bytes");
+            int n = encodeRangeInto(0, 0, bank0.length, b, off);
+            return n + encodeRangeInto(2, 0, bank2.length, b, off + n);
+        }
+
+        /**
+         * Writes the complete configuration as raw sysex at the buffer's
+         * position, as Config.encodeInto(ByteBuffer) does.
+         * @param buf the buffer to write into
+         * @throws BufferOverflowException if fewer than SYSEX_LENGTH bytes
+         * remain
+         */
+        public void encodeInto(ByteBuffer buf) {
+            if (buf.remaining() < SYSEX_LENGTH)
+                throw new BufferOverflowException();
+            if (buf.hasArray()) {
+                int n = encodeInto(buf.array(), buf.arrayOffset() + buf.position());
+                buf.position(buf.position() + n);
+                return;
+            }
+            for (int msb = 0; msb <= 2; msb += 2) {
+                byte[] bank = bank(msb);
+                buf.put((byte)0xf0).put((byte)0x47).put((byte)0x7f).put((byte)0x6d);
+                buf.put((byte)msb).put((byte)0).put((byte)bank.length);
+                buf.put(bank);
+                buf.put((byte)0xf7);
+            }
+        }
+
+        /**
+         * Finds the runs of changed parameters in one bank that make up the
+         * smallest set of writes, bridging clean gaps that are shorter than
+         * a message header.
+         * @param msb the address MSB of the bank (0 or 2)
+         * @param runs receives an (lsb, length) pair per run; must have room
+         * for two ints per parameter in the bank
+         * @return the number of runs found
+         */
+        int dirtyRuns(int msb, int[] runs) {
+            int dirty = (msb == 0) ? dirty0 : dirty2;
+            int length = bankLength(msb);
+            int count = 0;
+            int lsb = 0;
+            while (dirty >>> lsb != 0) {
+                lsb += Integer.numberOfTrailingZeros(dirty >>> lsb);
+                int end = lsb;
+                // Extend the run across clean gaps shorter than a message header
+                while (end < length) {
+                    int rest = dirty >>> (end + 1);
+                    if (rest == 0) break;
+                    int gap = Integer.numberOfTrailingZeros(rest);
+                    if (gap >= SYSEX_OVERHEAD) break;
+                    end += gap + 1;
+                }
+                runs[2*count] = lsb;
+                runs[2*count + 1] = end - lsb + 1;
+                count++;
+                lsb = end + 1;
+            }
+            return count;
+        }
+
+        /**
+         * Writes one framed bank write covering the given parameters.
+         * @return the number of bytes written
+         */
+        int encodeRangeInto(int msb, int lsb, int length, byte[] b, int off) {
+            b[off] = (byte)0xf0;
+            b[off + 1] = (byte)0x47;
+            b[off + 2] = (byte)0x7f;
+            b[off + 3] = (byte)0x6d;
+            b[off + 4] = (byte)msb;
+            b[off + 5] = (byte)lsb;
+            b[off + 6] = (byte)length;
+            copyRange(msb, lsb, length, b, off + 7);
+            b[off + 7 + length] = (byte)0xf7;
+            return length + SYSEX_OVERHEAD;
+        }
+
+        /**
+         * Copies parameter values out of one bank.
+         */
+        void copyRange(int msb, int lsb, int length, byte[] b, int off) {
+            System.arraycopy(bank(msb), lsb, b, off, length);
+        }
+
+        /**
+         * Derives a snapshot with the same values but different parameters
+         * marked as changed.
+         * @return the new snapshot, or this one if nothing would change
+         */
+        Snapshot withDirty(int dirty0, int dirty2) {
+            if (dirty0 == this.dirty0 && dirty2 == this.dirty2) {
+                return this;
+            }
+            return new Snapshot(bank0, bank2, dirty0, dirty2, version + 1);
+        }
+
+        private SysexMessage message(int msb, int lsb, int length)
+                throws InvalidMidiDataException {
+            byte[] m = new byte[length + SYSEX_OVERHEAD];
+            encodeRangeInto(msb, lsb, length, m, 0);
+            return new SysexMessage(m, m.length);
+        }
+
+        private byte[] bank(int msb) {
+            if (msb == 0) return bank0;
+            if (msb == 2) return bank2;
+            throw new IllegalArgumentException("MSB out of range");
+        }
+
+        // Never modified once the snapshot is constructed
+        private final byte[] bank0;
+        private final byte[] bank2;
+        private final int dirty0;
+        private final int dirty2;
+        private final long version;
+    }
     
-    private final byte[] bank0;
-    private final byte[] bank2;
+    /** Bytes in a bank write besides the parameter values themselves. */
+    static final int SYSEX_OVERHEAD = 8;
+    static final int BANK0_LENGTH = 6;
+    static final int BANK2_LENGTH = 11;
+    /** Bytes written by encodeInto(). */
+    public static final int SYSEX_LENGTH =
+            BANK0_LENGTH + BANK2_LENGTH + 2 * SYSEX_OVERHEAD;
+    private static final int ALL0 = (1 << BANK0_LENGTH) - 1;
+    private static final int ALL2 = (1 << BANK2_LENGTH) - 1;
+
+    private final AtomicReference<Snapshot> state;
 }
@@ -0,0 +1,269 @@
+/*
+ * Copyright (C) 2016 Greg Lyons <greglyons50+github@gmail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package us.voxg.jewiusb;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.sound.midi.MidiDevice;
+import javax.sound.midi.MidiSystem;
+import javax.sound.midi.Sequencer;
+import javax.sound.midi.Synthesizer;
+
+/**
+ * Finds MIDI ports in the background and reports only what has come and
+ * gone since the last look, so that a slow or hung MIDI provider never
+ * stalls the GUI.  Each new device is probed for its capabilities on a
+ * thread of its own, with a time limit; a device that doesn't answer in
+ * time is left out and tried again on a later scan, without starting a
+ * second probe while the first is still stuck.  What is known is cached, so
+ * a scan of an unchanged system opens nothing.
+ * <p>
+ * Java Sound only sees ports that its providers report; on some platforms
+ * they don't notice hot-plugged devices until the JVM restarts.
+ * @author Greg Lyons <greglyons50+github@gmail.com>
+ */
+public class DeviceDiscovery {
+    /**
+     * A MIDI port and what it can do.
+     */
+    public static final class Device {
+        Device(MidiDevice.Info info, boolean input, boolean output,
+                boolean port) {
+            this.info = info;
+            this.input = input;
+            this.output = output;
+            this.port = port;
+        }
+
+        public MidiDevice.Info getInfo() {
+            return info;
+        }
+
+        /**
+         * Tells whether the device can be a MIDI IN (has transmitters).
+         * @return true if it sends MIDI to the application
+         */
+        public boolean isInput() {
+            return input;
+        }
+
+        /**
+         * Tells whether the device can be a MIDI OUT (has receivers).
+         * @return true if it accepts MIDI from the application
+         */
+        public boolean isOutput() {
+            return output;
+        }
+
+        /**
+         * Tells whether the device is a port to hardware (or to another
+         * application) rather than Java's own sequencer or synthesizer.
+         * @return true for a port
+         */
+        public boolean isPort() {
+            return port;
+        }
+
+        @Override
+        public String toString() {
+            return info.getName();
+        }
+
+        private final MidiDevice.Info info;
+        private final boolean input;
+        private final boolean output;
+        private final boolean port;
+    }
+
+    /**
+     * Hears about changes in the devices present.
+     */
+    public interface Listener {
+        /**
+         * Reports the devices that have appeared and disappeared.  Called on
+         * the discovery thread, and only when something has changed.
+         * @param added the new devices
+         * @param removed the devices no longer present
+         */
+        void devicesChanged(List<Device> added, List<Device> removed);
+    }
+
+    /**
+     * Creates the service; nothing is scanned until start() or refresh().
+     * @param l the listener for changes
+     * @param probeTimeoutMillis how long to wait for any one device
+     */
+    public DeviceDiscovery(Listener l, long probeTimeoutMillis) {
+        listener = l;
+        probeTimeout = probeTimeoutMillis;
+    }
+
+    /**
+     * Scans now and then at a fixed interval.
+     * @param periodMillis the time between scans
+     */
+    public void start(long periodMillis) {
+        scanner.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                scan();
+            }
+        }, 0, periodMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Scans as soon as the discovery thread is free.
+     * @param done run on the discovery thread after the scan, or null
+     */
+    public void refresh(final Runnable done) {
+        scanner.execute(new Runnable() {
+            @Override
+            public void run() {
+                scan();
+                if (done != null) {
+                    done.run();
+                }
+            }
+        });
+    }
+
+    /**
+     * Returns the devices found by the last scan.
+     * @return the devices, in the order the system lists them
+     */
+    public synchronized List<Device> getDevices() {
+        return new ArrayList<>(known.values());
+    }
+
+    /**
+     * Stops scanning.  Probes still stuck in a provider are abandoned.
+     */
+    public void stop() {
+        scanner.shutdownNow();
+        probes.shutdownNow();
+    }
+
+    private void scan() {
+        MidiDevice.Info[] infos;
+        try {
+            infos = MidiSystem.getMidiDeviceInfo();
+        } catch (RuntimeException ex) {
+            Logger.getLogger(DeviceDiscovery.class.getName()).log(
+                    Level.WARNING, "Can't list MIDI devices", ex);
+            return;
+        }
+        Map<MidiDevice.Info, Future<Device>> started = new HashMap<>();
+        for (final MidiDevice.Info i : infos) {
+            if (known.containsKey(i) || started.containsKey(i)) {
+                continue;
+            }
+            Future<Device> f = pending.get(i);
+            if (f == null) {
+                f = probes.submit(new Callable<Device>() {
+                    @Override
+                    public Device call() throws Exception {
+                        MidiDevice d = MidiSystem.getMidiDevice(i);
+                        return new Device(i, d.getMaxTransmitters() != 0,
+                                d.getMaxReceivers() != 0,
+                                !(d instanceof Sequencer || d instanceof Synthesizer));
+                    }
+                });
+                pending.put(i, f);
+            }
+            started.put(i, f);
+        }
+        // All probes run at once; the timeout bounds each of them, so the
+        // scan takes no longer than its slowest device allows
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(probeTimeout);
+        Map<MidiDevice.Info, Device> found = new HashMap<>();
+        for (Map.Entry<MidiDevice.Info, Future<Device>> e : started.entrySet()) {
+            try {
+                found.put(e.getKey(), e.getValue().get(
+                        Math.max(0, deadline - System.nanoTime()),
+                        TimeUnit.NANOSECONDS));
+                pending.remove(e.getKey());
+            } catch (TimeoutException ex) {
+                // Still stuck; look again next scan
+            } catch (ExecutionException ex) {
+                pending.remove(e.getKey());
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+        List<Device> added = new ArrayList<>();
+        List<Device> removed;
+        synchronized (this) {
+            Map<MidiDevice.Info, Device> next = new LinkedHashMap<>();
+            for (MidiDevice.Info i : infos) {
+                Device d = known.remove(i);
+                if (d == null) {
+                    d = found.get(i);
+                    if (d == null) {
+                        continue;
+                    }
+                    added.add(d);
+                }
+                next.put(i, d);
+            }
+            removed = new ArrayList<>(known.values());
+            known = next;
+        }
+        pending.keySet().retainAll(Arrays.asList(infos));
+        if (!added.isEmpty() || !removed.isEmpty()) {
+            listener.devicesChanged(Collections.unmodifiableList(added),
+                    Collections.unmodifiableList(removed));
+        }
+    }
+
+    private static ThreadFactory daemons(final String name) {
+        return new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, name);
+                t.setDaemon(true);
+                return t;
+            }
+        };
+    }
+
+    private final Listener listener;
+    private final long probeTimeout;
+    private final ScheduledExecutorService scanner =
+            Executors.newSingleThreadScheduledExecutor(daemons("MIDI discovery"));
+    private final ExecutorService probes =
+            Executors.newCachedThreadPool(daemons("MIDI device probe"));
+    // Only touched on the discovery thread
+    private final Map<MidiDevice.Info, Future<Device>> pending = new HashMap<>();
+    private Map<MidiDevice.Info, Device> known = new LinkedHashMap<>();
+}
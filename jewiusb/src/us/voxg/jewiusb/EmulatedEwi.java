@@ -0,0 +1,468 @@
+/*
+ * Copyright (C) 2016 Greg Lyons <greglyons50+github@gmail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package us.voxg.jewiusb;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.Random;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import javax.sound.midi.InvalidMidiDataException;
+import javax.sound.midi.MidiDevice;
+import javax.sound.midi.MidiMessage;
+import javax.sound.midi.Receiver;
+import javax.sound.midi.ShortMessage;
+import javax.sound.midi.SysexMessage;
+import javax.sound.midi.Transmitter;
+
+/**
+ * A software stand-in for an EWI-USB, for trying the application and
+ * measuring it end to end without an instrument.  It follows the NRPN switch
+ * into and out of sysex mode, applies bank writes to its own Config, and
+ * answers bank requests with dumps and Identity Requests with an Akai
+ * Identity Reply.  Replies can be delayed by a fixed
+ * latency plus random jitter, and any message (in either direction) can be
+ * dropped at random, to imitate a slow or lossy USB connection.
+ * <p>
+ * The emulator is both the MIDI IN and the MIDI OUT device: messages sent
+ * to its receivers are handled, and replies go to the receivers of its
+ * transmitters.  Receivers may be used from any thread; replies are
+ * delivered on the emulator's own thread.  Messages stamped with a future
+ * getMicrosecondPosition() time are held until then.
+ * @author Greg Lyons <greglyons50+github@gmail.com>
+ */
+public class EmulatedEwi implements MidiDevice {
+    /**
+     * Creates an emulator with default settings, answering immediately and
+     * never dropping anything.
+     */
+    public EmulatedEwi() {
+        this(new Config());
+    }
+
+    /**
+     * Creates an emulator holding the given settings.
+     * @param c the emulated device memory; updated by writes
+     */
+    public EmulatedEwi(Config c) {
+        memory = c;
+    }
+
+    /**
+     * Sets the time the emulator takes to answer a request.
+     * @param micros the fixed part of the delay, in microseconds
+     */
+    public void setLatency(long micros) {
+        if (micros < 0)
+            throw new IllegalArgumentException("Latency must not be negative");
+        latency = micros;
+    }
+
+    /**
+     * Sets how much the reply delay varies.  Each reply is delayed by the
+     * latency plus a random amount between zero and this.
+     * @param micros the maximum extra delay, in microseconds
+     */
+    public void setJitter(long micros) {
+        if (micros < 0)
+            throw new IllegalArgumentException("Jitter must not be negative");
+        jitter = micros;
+    }
+
+    /**
+     * Sets the chance of any one message being lost, coming or going.
+     * @param rate the probability, from 0 (never) to 1 (always)
+     */
+    public void setDropRate(double rate) {
+        if (rate < 0 || rate > 1)
+            throw new IllegalArgumentException("Drop rate must be 0-1");
+        dropRate = rate;
+    }
+
+    /**
+     * Makes the jitter and drops repeatable.
+     * @param seed the random seed
+     */
+    public void setSeed(long seed) {
+        synchronized (random) {
+            random.setSeed(seed);
+        }
+    }
+
+    /**
+     * Returns the emulated device memory.
+     * @return the Config that writes are applied to and dumps come from
+     */
+    public Config getMemory() {
+        return memory;
+    }
+
+    /**
+     * Tells whether the emulated EWI-USB is in sysex mode.
+     * @return true if bank requests and writes are currently accepted
+     */
+    public boolean isSysexMode() {
+        return sysexMode;
+    }
+
+    @Override
+    public MidiDevice.Info getDeviceInfo() {
+        return INFO;
+    }
+
+    /**
+     * Opens the emulator.  It is both an IN and an OUT device, so it counts
+     * opens and stays open until closed as many times.
+     */
+    @Override
+    public synchronized void open() {
+        openCount++;
+        if (scheduler == null) {
+            scheduler = Executors.newSingleThreadScheduledExecutor(
+                    new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, "EWI emulator");
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+            openedAt = System.nanoTime();
+        }
+    }
+
+    @Override
+    public synchronized void close() {
+        if (openCount > 0 && --openCount > 0) {
+            return;
+        }
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+            scheduler = null;
+            held.clear();
+        }
+        for (Receiver r : new ArrayList<>(receivers)) {
+            r.close();
+        }
+        for (Transmitter t : new ArrayList<>(transmitters)) {
+            t.close();
+        }
+        sysexMode = false;
+    }
+
+    @Override
+    public synchronized boolean isOpen() {
+        return scheduler != null;
+    }
+
+    @Override
+    public synchronized long getMicrosecondPosition() {
+        return (scheduler == null) ? -1 : (System.nanoTime() - openedAt) / 1000;
+    }
+
+    @Override
+    public int getMaxReceivers() {
+        return -1;
+    }
+
+    @Override
+    public int getMaxTransmitters() {
+        return -1;
+    }
+
+    @Override
+    public synchronized Receiver getReceiver() {
+        Receiver r = new EmulatorReceiver();
+        receivers.add(r);
+        return r;
+    }
+
+    @Override
+    public synchronized List<Receiver> getReceivers() {
+        return new ArrayList<>(receivers);
+    }
+
+    @Override
+    public synchronized Transmitter getTransmitter() {
+        Transmitter t = new EmulatorTransmitter();
+        transmitters.add(t);
+        return t;
+    }
+
+    @Override
+    public synchronized List<Transmitter> getTransmitters() {
+        return new ArrayList<>(transmitters);
+    }
+
+    /**
+     * Handles a message sent to the emulated EWI-USB.
+     */
+    private void handle(MidiMessage message) {
+        if (drop()) {
+            return;
+        }
+        if (message instanceof ShortMessage) {
+            ShortMessage m = (ShortMessage)message;
+            if (m.getCommand() == ShortMessage.CONTROL_CHANGE) {
+                controlChange(m.getData1(), m.getData2());
+            }
+        } else if (message instanceof SysexMessage
+                && EwiDetector.isIdentityRequest(message.getMessage())) {
+            reply(identity());
+        } else if (message instanceof SysexMessage && sysexMode) {
+            byte[] b = message.getMessage();
+            if (b.length < 8 || b[1] != 0x47 || b[3] != 0x6d) {
+                return;
+            }
+            if ((b[4] & 0x40) != 0) {
+                requested(b[4] & 0x3F);
+            } else {
+                try {
+                    memory.fromSysex(b, 0, b.length);
+                } catch (IllegalArgumentException ex) {
+                    // The real EWI-USB ignores writes it doesn't understand
+                }
+            }
+        }
+    }
+
+    /**
+     * Handles the held messages that are due, in the order they were sent.
+     * Runs on the emulator's thread.
+     */
+    private void handleHeld() {
+        while (true) {
+            Held h;
+            synchronized (this) {
+                h = held.peek();
+                if (h == null || h.due - System.nanoTime() > 0) {
+                    return;
+                }
+                held.remove();
+            }
+            handle(h.message);
+        }
+    }
+
+    /**
+     * A message waiting for its timestamp.
+     */
+    private static class Held {
+        Held(MidiMessage m, long dueNanos) {
+            message = m;
+            due = dueNanos;
+        }
+
+        final MidiMessage message;
+        final long due;
+    }
+
+    private synchronized void controlChange(int controller, int value) {
+        switch (controller) {
+            case 0x63:
+                nrpnMsb = value;
+                break;
+            case 0x62:
+                nrpnLsb = value;
+                break;
+            case 0x06:
+                if (nrpnMsb == 0x01 && nrpnLsb == 0x04) {
+                    if (value == 0x20) {
+                        sysexMode = true;
+                    } else if (value == 0x10) {
+                        sysexMode = false;
+                    }
+                }
+                break;
+            default:
+                break;
+        }
+    }
+
+    /**
+     * Sends a dump of the bank asked for, after the configured delay.
+     */
+    private void requested(int msb) {
+        SysexMessage[] banks = memory.toSysex();
+        final SysexMessage dump;
+        if (msb == 0) {
+            dump = banks[0];
+        } else if (msb == 2) {
+            dump = banks[1];
+        } else {
+            return;
+        }
+        reply(dump);
+    }
+
+    /**
+     * Builds the Identity Reply.  The family and model codes are the
+     * emulator's own; only Akai's manufacturer ID matters to detection.
+     */
+    private static SysexMessage identity() {
+        byte[] b = {
+            (byte)0xF0, (byte)0x7E, (byte)0x7F, (byte)0x06, (byte)0x02,
+            (byte)0x47, (byte)0x6D, (byte)0x00, (byte)0x00, (byte)0x00,
+            (byte)0x01, (byte)0x00, (byte)0x00, (byte)0x00, (byte)0xF7
+        };
+        try {
+            return new SysexMessage(b, b.length);
+        } catch (InvalidMidiDataException ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    /**
+     * Sends a reply after the configured delay, unless it is dropped.
+     */
+    private void reply(final MidiMessage message) {
+        if (drop()) {
+            return;
+        }
+        long delay = latency;
+        if (jitter > 0) {
+            synchronized (random) {
+                delay += (long)(random.nextDouble() * jitter);
+            }
+        }
+        ScheduledExecutorService s;
+        synchronized (this) {
+            s = scheduler;
+        }
+        if (s == null) {
+            return;
+        }
+        s.schedule(new Runnable() {
+            @Override
+            public void run() {
+                transmit(message);
+            }
+        }, delay, TimeUnit.MICROSECONDS);
+    }
+
+    private void transmit(MidiMessage message) {
+        long timeStamp = getMicrosecondPosition();
+        List<Transmitter> targets;
+        synchronized (this) {
+            targets = new ArrayList<>(transmitters);
+        }
+        for (Transmitter t : targets) {
+            Receiver r = t.getReceiver();
+            if (r != null) {
+                r.send(message, timeStamp);
+            }
+        }
+    }
+
+    private boolean drop() {
+        if (dropRate == 0) {
+            return false;
+        }
+        synchronized (random) {
+            return random.nextDouble() < dropRate;
+        }
+    }
+
+    private class EmulatorReceiver implements Receiver {
+        @Override
+        public void send(MidiMessage message, long timeStamp) {
+            if (closed || !isOpen())
+                throw new IllegalStateException("Receiver is closed");
+            long delay = (timeStamp < 0) ? 0
+                    : timeStamp - getMicrosecondPosition();
+            synchronized (EmulatedEwi.this) {
+                long now = System.nanoTime();
+                if (scheduler != null && (delay > 0 || !held.isEmpty())) {
+                    // Like a driver that schedules, hold the message until
+                    // its time, behind any held before it.  The caller may
+                    // reuse its copy meanwhile.
+                    long due = Math.max(now + delay * 1000, heldUntil);
+                    heldUntil = due;
+                    held.add(new Held((MidiMessage)message.clone(), due));
+                    scheduler.schedule(new Runnable() {
+                        @Override
+                        public void run() {
+                            handleHeld();
+                        }
+                    }, due - now, TimeUnit.NANOSECONDS);
+                    return;
+                }
+            }
+            handle(message);
+        }
+
+        @Override
+        public void close() {
+            closed = true;
+            synchronized (EmulatedEwi.this) {
+                receivers.remove(this);
+            }
+        }
+
+        private volatile boolean closed = false;
+    }
+
+    private class EmulatorTransmitter implements Transmitter {
+        @Override
+        public void setReceiver(Receiver r) {
+            receiver = r;
+        }
+
+        @Override
+        public Receiver getReceiver() {
+            return receiver;
+        }
+
+        @Override
+        public void close() {
+            synchronized (EmulatedEwi.this) {
+                transmitters.remove(this);
+            }
+        }
+
+        private volatile Receiver receiver;
+    }
+
+    private static class EmulatorInfo extends MidiDevice.Info {
+        EmulatorInfo() {
+            super("EWI-USB Emulator", "jewiusb", "Software EWI-USB", "1.0");
+        }
+    }
+
+    /** Identifies every emulator to Java Sound. */
+    public static final MidiDevice.Info INFO = new EmulatorInfo();
+
+    private final Config memory;
+    private final Random random = new Random();
+    private final List<Receiver> receivers = new ArrayList<>();
+    private final List<Transmitter> transmitters = new ArrayList<>();
+    private ScheduledExecutorService scheduler;
+    private final Queue<Held> held = new ArrayDeque<>();
+    private long heldUntil;
+    private int openCount = 0;
+    private long openedAt;
+    private int nrpnMsb = 0x7F;
+    private int nrpnLsb = 0x7F;
+    private volatile boolean sysexMode = false;
+    private volatile long latency = 0;
+    private volatile long jitter = 0;
+    private volatile double dropRate = 0;
+}
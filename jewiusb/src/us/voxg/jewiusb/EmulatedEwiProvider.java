@@ -0,0 +1,83 @@
+/*
+ * Copyright (C) 2016 Greg Lyons <greglyons50+github@gmail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package us.voxg.jewiusb;
+
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.sound.midi.MidiDevice;
+import javax.sound.midi.spi.MidiDeviceProvider;
+
+/**
+ * Offers an EmulatedEwi to Java Sound, so that it shows up in the MIDI menus
+ * alongside real devices.  The emulator is only offered when the
+ * jewiusb.emulator system property is true; jewiusb.emulator.latency and
+ * jewiusb.emulator.jitter (in milliseconds) and jewiusb.emulator.drop (a
+ * probability from 0 to 1) configure it.
+ * @author Greg Lyons <greglyons50+github@gmail.com>
+ */
+public class EmulatedEwiProvider extends MidiDeviceProvider {
+    @Override
+    public MidiDevice.Info[] getDeviceInfo() {
+        if (!Boolean.getBoolean("jewiusb.emulator")) {
+            return new MidiDevice.Info[0];
+        }
+        return new MidiDevice.Info[] { EmulatedEwi.INFO };
+    }
+
+    @Override
+    public MidiDevice getDevice(MidiDevice.Info info) {
+        if (!isDeviceSupported(info))
+            throw new IllegalArgumentException("Not an emulated EWI-USB");
+        return Holder.DEVICE;
+    }
+
+    /**
+     * The one emulator shared by every lookup, so that the MIDI IN and OUT
+     * selections talk to the same device.
+     */
+    private static class Holder {
+        static final EmulatedEwi DEVICE = create();
+
+        private static EmulatedEwi create() {
+            EmulatedEwi d = new EmulatedEwi();
+            // A bad setting must not stop Java Sound listing other devices
+            try {
+                d.setLatency(1000L * Integer.getInteger("jewiusb.emulator.latency", 0));
+            } catch (IllegalArgumentException ex) {
+                ignored("jewiusb.emulator.latency", ex);
+            }
+            try {
+                d.setJitter(1000L * Integer.getInteger("jewiusb.emulator.jitter", 0));
+            } catch (IllegalArgumentException ex) {
+                ignored("jewiusb.emulator.jitter", ex);
+            }
+            try {
+                d.setDropRate(Double.parseDouble(
+                        System.getProperty("jewiusb.emulator.drop", "0")));
+            } catch (IllegalArgumentException ex) {
+                ignored("jewiusb.emulator.drop", ex);
+            }
+            return d;
+        }
+
+        private static void ignored(String property, Exception ex) {
+            Logger.getLogger(EmulatedEwiProvider.class.getName()).log(
+                    Level.WARNING, "Ignoring " + property + "="
+                    + System.getProperty(property), ex);
+        }
+    }
+}
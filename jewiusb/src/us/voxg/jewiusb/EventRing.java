@@ -0,0 +1,91 @@
+/*
+ * Copyright (C) 2016 Greg Lyons <greglyons50+github@gmail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package us.voxg.jewiusb;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A fixed-size, lock-free queue of longs for exactly one producer thread and
+ * one consumer thread.  The producer never blocks or allocates: when the
+ * consumer falls behind, new events are dropped and counted instead.
+ * @author Greg Lyons <greglyons50+github@gmail.com>
+ */
+public class EventRing {
+    /**
+     * Creates a ring.
+     * @param capacity the minimum number of events held; rounded up to a
+     * power of two
+     */
+    public EventRing(int capacity) {
+        if (capacity <= 0 || capacity > (1 << 30))
+            throw new IllegalArgumentException("Capacity out of range");
+        int size = Integer.highestOneBit(capacity);
+        if (size < capacity) {
+            size <<= 1;
+        }
+        slots = new long[size];
+        mask = size - 1;
+    }
+
+    /**
+     * Adds an event.  Must only be called from the producer thread.
+     * @param event the event
+     * @return false if the ring was full and the event was dropped
+     */
+    public boolean offer(long event) {
+        long t = tail.get();
+        if (t - head.get() == slots.length) {
+            dropped.lazySet(dropped.get() + 1);
+            return false;
+        }
+        slots[(int)t & mask] = event;
+        // Publishes the slot to the consumer
+        tail.lazySet(t + 1);
+        return true;
+    }
+
+    /**
+     * Removes as many events as are waiting, up to the size of the array.
+     * Must only be called from the consumer thread.
+     * @param out receives the events, oldest first
+     * @return the number of events removed
+     */
+    public int drain(long[] out) {
+        long h = head.get();
+        int n = (int)Math.min(tail.get() - h, out.length);
+        for (int i = 0; i < n; i++) {
+            out[i] = slots[(int)(h + i) & mask];
+        }
+        // Hands the slots back to the producer
+        head.lazySet(h + n);
+        return n;
+    }
+
+    /**
+     * Returns how many events have been dropped because the ring was full.
+     * @return the number of events dropped
+     */
+    public long getDropped() {
+        return dropped.get();
+    }
+
+    private final long[] slots;
+    private final int mask;
+    private final AtomicLong head = new AtomicLong();
+    private final AtomicLong tail = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+}
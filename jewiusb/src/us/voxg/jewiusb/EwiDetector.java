@@ -0,0 +1,291 @@
+/*
+ * Copyright (C) 2016 Greg Lyons <greglyons50+github@gmail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package us.voxg.jewiusb;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import javax.sound.midi.InvalidMidiDataException;
+import javax.sound.midi.MidiDevice;
+import javax.sound.midi.MidiMessage;
+import javax.sound.midi.MidiSystem;
+import javax.sound.midi.MidiUnavailableException;
+import javax.sound.midi.Receiver;
+import javax.sound.midi.SysexMessage;
+import javax.sound.midi.Transmitter;
+
+/**
+ * Finds which MIDI IN and OUT ports lead to an EWI-USB by asking, rather
+ * than by port name, so it works however the OS names the ports and
+ * through MIDI interfaces.  A Universal Identity Request goes to every
+ * output at once and Akai's reply shows up on the EWI's input.  A reply
+ * doesn't say which output carried the request, so the outputs are then
+ * halved until one is left: a handful of short rounds, each over as soon
+ * as the EWI answers.
+ * <p>
+ * The detector opens and closes the ports itself, so the session's devices
+ * should be closed first.  Called on the MIDI I/O thread.
+ * @author Greg Lyons <greglyons50+github@gmail.com>
+ */
+public class EwiDetector {
+    /**
+     * The ports an EWI-USB answered on, and how it identified itself.
+     */
+    public static final class Result {
+        Result(MidiDevice.Info in, MidiDevice.Info out, byte[] identity) {
+            this.in = in;
+            this.out = out;
+            this.identity = identity;
+        }
+
+        public MidiDevice.Info getInput() {
+            return in;
+        }
+
+        public MidiDevice.Info getOutput() {
+            return out;
+        }
+
+        /**
+         * Returns the Identity Reply as received.
+         * @return the reply, F0 to F7; must not be modified
+         */
+        public byte[] getIdentity() {
+            return identity;
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder();
+            sb.append("IN ").append(in.getName())
+                    .append(", OUT ").append(out.getName()).append(", id");
+            for (int i = 5; i < identity.length - 1; i++) {
+                sb.append(String.format(" %02X", identity[i]));
+            }
+            return sb.toString();
+        }
+
+        private final MidiDevice.Info in;
+        private final MidiDevice.Info out;
+        private final byte[] identity;
+    }
+
+    /**
+     * Creates a detector for the given ports.
+     * @param inputs the candidate MIDI IN ports
+     * @param outputs the candidate MIDI OUT ports
+     */
+    public EwiDetector(List<MidiDevice.Info> inputs,
+            List<MidiDevice.Info> outputs) {
+        inInfos = new ArrayList<>(inputs);
+        outInfos = new ArrayList<>(outputs);
+    }
+
+    /**
+     * Looks for an EWI-USB.  Ports that can't be opened are skipped.
+     * @param timeout how long to wait for a reply in each round
+     * @param unit the unit of the timeout argument
+     * @return where the EWI-USB was found, or null if nothing answered
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public Result detect(long timeout, TimeUnit unit)
+            throws InterruptedException {
+        long wait = unit.toNanos(timeout);
+        List<MidiDevice> opened = new ArrayList<>();
+        List<Receiver> outs = new ArrayList<>();
+        List<MidiDevice.Info> outNames = new ArrayList<>();
+        try {
+            for (MidiDevice.Info i : inInfos) {
+                try {
+                    MidiDevice d = open(i, opened);
+                    Transmitter t = d.getTransmitter();
+                    t.setReceiver(new Listener(i));
+                } catch (MidiUnavailableException | IllegalArgumentException ex) {
+                    // Not usable as an input now; carry on without it
+                }
+            }
+            for (MidiDevice.Info i : outInfos) {
+                try {
+                    outs.add(open(i, opened).getReceiver());
+                    outNames.add(i);
+                } catch (MidiUnavailableException | IllegalArgumentException ex) {
+                    // Not usable as an output now; carry on without it
+                }
+            }
+            List<Integer> candidates = new ArrayList<>();
+            for (int i = 0; i < outs.size(); i++) {
+                candidates.add(i);
+            }
+            if (ask(outs, candidates, wait).isEmpty()) {
+                return null;
+            }
+            while (candidates.size() > 1) {
+                List<Integer> half = candidates.subList(0, candidates.size() / 2);
+                if (!ask(outs, half, wait).isEmpty()) {
+                    candidates = new ArrayList<>(half);
+                } else {
+                    candidates = new ArrayList<>(
+                            candidates.subList(half.size(), candidates.size()));
+                }
+            }
+            // The last halving may have been by elimination; make sure
+            List<Reply> confirmed = ask(outs, candidates, wait);
+            if (confirmed.isEmpty()) {
+                return null;
+            }
+            Reply r = confirmed.get(0);
+            return new Result(r.input, outNames.get(candidates.get(0)),
+                    r.identity);
+        } finally {
+            for (MidiDevice d : opened) {
+                d.close();
+            }
+        }
+    }
+
+    private static MidiDevice open(MidiDevice.Info i, List<MidiDevice> opened)
+            throws MidiUnavailableException {
+        MidiDevice d = MidiSystem.getMidiDevice(i);
+        d.open();
+        opened.add(d);
+        return d;
+    }
+
+    /**
+     * Sends the Identity Request to some of the outputs and waits for the
+     * first reply.  Replies are tagged with the round they arrive in, and
+     * the round is closed when this returns, so a reply that straggles in
+     * after its round timed out isn't credited to a later one.
+     * @return the replies received during this round
+     */
+    private List<Reply> ask(List<Receiver> outs, List<Integer> which,
+            long waitNanos) throws InterruptedException {
+        synchronized (this) {
+            replies.clear();
+            round++;
+        }
+        for (int i : which) {
+            try {
+                outs.get(i).send(identityRequest(), -1);
+            } catch (InvalidMidiDataException | IllegalStateException ex) {
+                // A port that has gone can't be the one
+            }
+        }
+        long deadline = System.nanoTime() + waitNanos;
+        synchronized (this) {
+            try {
+                long remaining;
+                while (replies.isEmpty()
+                        && (remaining = deadline - System.nanoTime()) > 0) {
+                    TimeUnit.NANOSECONDS.timedWait(this, remaining);
+                }
+                return new ArrayList<>(replies);
+            } finally {
+                // Anything arriving from now on belongs to no round
+                round++;
+            }
+        }
+    }
+
+    /**
+     * Builds a Universal Non-Realtime Identity Request for all devices.
+     * @return the request
+     * @throws InvalidMidiDataException never, in practice
+     */
+    public static SysexMessage identityRequest() throws InvalidMidiDataException {
+        byte[] b = {
+            (byte)0xF0, (byte)0x7E, (byte)0x7F, (byte)0x06, (byte)0x01,
+            (byte)0xF7
+        };
+        return new SysexMessage(b, b.length);
+    }
+
+    /**
+     * Tells whether a message is a Universal Identity Request.
+     * @param b the message bytes
+     * @return true if it is
+     */
+    public static boolean isIdentityRequest(byte[] b) {
+        return b.length == 6 && (b[0] & 0xFF) == 0xF0 && b[1] == 0x7E
+                && b[3] == 0x06 && b[4] == 0x01;
+    }
+
+    /**
+     * Tells whether a message is an Identity Reply from an Akai device.
+     * @param b the message bytes
+     * @return true if it is
+     */
+    public static boolean isAkaiIdentity(byte[] b) {
+        return b.length >= 7 && (b[0] & 0xFF) == 0xF0 && b[1] == 0x7E
+                && b[3] == 0x06 && b[4] == 0x02 && b[5] == AKAI;
+    }
+
+    /**
+     * Notes Identity Replies arriving on one input.
+     */
+    private class Listener implements Receiver {
+        Listener(MidiDevice.Info i) {
+            info = i;
+        }
+
+        @Override
+        public void send(MidiMessage message, long timeStamp) {
+            if (!(message instanceof SysexMessage)) {
+                return;
+            }
+            byte[] b = message.getMessage();
+            if (isAkaiIdentity(b)) {
+                synchronized (EwiDetector.this) {
+                    if ((round & 1) == 0) {
+                        // Between rounds: a late reply to an earlier one
+                        return;
+                    }
+                    replies.add(new Reply(info, Arrays.copyOf(b, b.length)));
+                    EwiDetector.this.notifyAll();
+                }
+            }
+        }
+
+        @Override
+        public void close() {
+        }
+
+        private final MidiDevice.Info info;
+    }
+
+    /**
+     * An Identity Reply and the input it arrived on.
+     */
+    private static final class Reply {
+        Reply(MidiDevice.Info input, byte[] identity) {
+            this.input = input;
+            this.identity = identity;
+        }
+
+        final MidiDevice.Info input;
+        final byte[] identity;
+    }
+
+    private static final byte AKAI = 0x47;
+
+    private final List<MidiDevice.Info> inInfos;
+    private final List<MidiDevice.Info> outInfos;
+    private final List<Reply> replies = new ArrayList<>();
+    // Odd while a round is waiting for replies, even between rounds
+    private int round;
+}
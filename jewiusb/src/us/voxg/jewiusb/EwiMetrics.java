@@ -0,0 +1,279 @@
+/*
+ * Copyright (C) 2016 Greg Lyons <greglyons50+github@gmail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package us.voxg.jewiusb;
+
+import java.lang.management.ManagementFactory;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.sound.midi.MidiDevice;
+
+/**
+ * Collects timings and counts for the traffic between the application and
+ * the EWI-USB: how long the device takes to answer, how long writes and
+ * device opens take, and how often things go wrong.  Every method may be
+ * called from any thread and none of them block, so recording costs next to
+ * nothing on the MIDI paths.  The figures can be read through JMX (see
+ * register()) or as text from dump().
+ * @author Greg Lyons <greglyons50+github@gmail.com>
+ */
+public class EwiMetrics implements EwiMetricsMXBean {
+    /**
+     * Notes which devices are in use, for the reports.
+     * @param in the MIDI IN device, or null if none
+     * @param out the MIDI OUT device
+     */
+    public void setDevices(MidiDevice.Info in, MidiDevice.Info out) {
+        devices = "IN: " + describe(in) + ", OUT: " + describe(out);
+    }
+
+    /**
+     * Records how long a bank dump took to arrive after it was requested.
+     * @param msb the address MSB of the bank (0 or 2)
+     * @param nanos the round trip time, in nanoseconds
+     */
+    public void bankReceived(int msb, long nanos) {
+        (msb == 0 ? bank0Latency : bank2Latency).record(nanos);
+    }
+
+    /**
+     * Records a bank request that was not answered in time.
+     */
+    public void timedOut() {
+        timeouts.incrementAndGet();
+    }
+
+    /**
+     * Records a write repeated after a failed verification.
+     */
+    public void retried() {
+        retries.incrementAndGet();
+    }
+
+    /**
+     * Records the MIDI OUT device being reopened after a failed send.
+     */
+    public void reconnected() {
+        reconnects.incrementAndGet();
+    }
+
+    /**
+     * Records the time taken to send a batch of bank writes.
+     * @param nanos the time, in nanoseconds
+     */
+    public void sent(long nanos) {
+        sendDuration.record(nanos);
+    }
+
+    /**
+     * Records the time taken to open a MIDI device.
+     * @param nanos the time, in nanoseconds
+     */
+    public void opened(long nanos) {
+        deviceOpen.record(nanos);
+    }
+
+    /**
+     * Counts a message sent to the EWI-USB.
+     * @param length the message length in bytes
+     */
+    public void messageSent(int length) {
+        messagesSent.incrementAndGet();
+        bytesSent.addAndGet(length);
+    }
+
+    /**
+     * Counts a sysex message received from the EWI-USB.
+     * @param length the message length in bytes
+     */
+    public void messageReceived(int length) {
+        messagesReceived.incrementAndGet();
+        bytesReceived.addAndGet(length);
+    }
+
+    @Override
+    public String getDevices() {
+        return host() + " " + devices;
+    }
+
+    @Override
+    public LatencyHistogram.Summary getBank0Latency() {
+        return bank0Latency.summary();
+    }
+
+    @Override
+    public LatencyHistogram.Summary getBank2Latency() {
+        return bank2Latency.summary();
+    }
+
+    @Override
+    public LatencyHistogram.Summary getSendDuration() {
+        return sendDuration.summary();
+    }
+
+    @Override
+    public LatencyHistogram.Summary getDeviceOpen() {
+        return deviceOpen.summary();
+    }
+
+    @Override
+    public long getTimeouts() {
+        return timeouts.get();
+    }
+
+    @Override
+    public long getRetries() {
+        return retries.get();
+    }
+
+    @Override
+    public long getReconnects() {
+        return reconnects.get();
+    }
+
+    @Override
+    public long getMessagesSent() {
+        return messagesSent.get();
+    }
+
+    @Override
+    public long getBytesSent() {
+        return bytesSent.get();
+    }
+
+    @Override
+    public long getMessagesReceived() {
+        return messagesReceived.get();
+    }
+
+    @Override
+    public long getBytesReceived() {
+        return bytesReceived.get();
+    }
+
+    @Override
+    public void reset() {
+        bank0Latency.reset();
+        bank2Latency.reset();
+        sendDuration.reset();
+        deviceOpen.reset();
+        timeouts.set(0);
+        retries.set(0);
+        reconnects.set(0);
+        messagesSent.set(0);
+        bytesSent.set(0);
+        messagesReceived.set(0);
+        bytesReceived.set(0);
+    }
+
+    @Override
+    public String dump() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("Host:            ").append(host()).append('\n');
+        sb.append("Devices:         ").append(devices).append('\n');
+        sb.append("Bank 0 latency:  ").append(getBank0Latency()).append('\n');
+        sb.append("Bank 2 latency:  ").append(getBank2Latency()).append('\n');
+        sb.append("Send duration:   ").append(getSendDuration()).append('\n');
+        sb.append("Device open:     ").append(getDeviceOpen()).append('\n');
+        sb.append("Timeouts:        ").append(getTimeouts()).append('\n');
+        sb.append("Retries:         ").append(getRetries()).append('\n');
+        sb.append("Reconnects:      ").append(getReconnects()).append('\n');
+        sb.append("Sent:            ").append(getMessagesSent())
+                .append(" messages, ").append(getBytesSent()).append(" bytes\n");
+        sb.append("Received:        ").append(getMessagesReceived())
+                .append(" messages, ").append(getBytesReceived()).append(" bytes\n");
+        return sb.toString();
+    }
+
+    /**
+     * Publishes these metrics on the platform MBean server.
+     * @return true if they were registered, false if JMX refused them (e.g.
+     * another instance is already registered)
+     */
+    public boolean register() {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            server.registerMBean(this, new ObjectName(OBJECT_NAME));
+            return true;
+        } catch (JMException ex) {
+            return false;
+        }
+    }
+
+    /**
+     * Withdraws these metrics from the platform MBean server, if registered.
+     */
+    public void unregister() {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            server.unregisterMBean(new ObjectName(OBJECT_NAME));
+        } catch (JMException ex) {
+            // Not registered
+        }
+    }
+
+    private static String describe(MidiDevice.Info info) {
+        if (info == null) {
+            return "none";
+        }
+        return info.getName() + " (" + info.getVendor() + ")";
+    }
+
+    /**
+     * Returns the host name, which is looked up in the background since it
+     * can take a while on a badly configured network.
+     */
+    private static String host() {
+        String h = host;
+        return (h == null) ? "(host name not yet known)" : h;
+    }
+
+    static {
+        Thread lookup = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    host = InetAddress.getLocalHost().getHostName();
+                } catch (UnknownHostException ex) {
+                    host = "unknown host";
+                }
+            }
+        }, "Host name lookup");
+        lookup.setDaemon(true);
+        lookup.start();
+    }
+
+    /** The name the metrics are registered under. */
+    public static final String OBJECT_NAME = "us.voxg.jewiusb:type=EwiMetrics";
+
+    private static volatile String host;
+    private volatile String devices = "IN: none, OUT: none";
+    private final LatencyHistogram bank0Latency = new LatencyHistogram();
+    private final LatencyHistogram bank2Latency = new LatencyHistogram();
+    private final LatencyHistogram sendDuration = new LatencyHistogram();
+    private final LatencyHistogram deviceOpen = new LatencyHistogram();
+    private final AtomicLong timeouts = new AtomicLong();
+    private final AtomicLong retries = new AtomicLong();
+    private final AtomicLong reconnects = new AtomicLong();
+    private final AtomicLong messagesSent = new AtomicLong();
+    private final AtomicLong bytesSent = new AtomicLong();
+    private final AtomicLong messagesReceived = new AtomicLong();
+    private final AtomicLong bytesReceived = new AtomicLong();
+}
@@ -0,0 +1,95 @@
+/*
+ * Copyright (C) 2016 Greg Lyons <greglyons50+github@gmail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package us.voxg.jewiusb;
+
+/**
+ * The management interface of EwiMetrics, as seen through JMX (e.g. in
+ * JConsole under us.voxg.jewiusb).  Durations are in microseconds.
+ * @author Greg Lyons <greglyons50+github@gmail.com>
+ */
+public interface EwiMetricsMXBean {
+    /**
+     * @return the host and the MIDI devices in use, to tell apart reports
+     * from different machines and USB hubs
+     */
+    String getDevices();
+
+    /**
+     * @return time from sending a bank 0 request to its dump arriving
+     */
+    LatencyHistogram.Summary getBank0Latency();
+
+    /**
+     * @return time from sending a bank 2 request to its dump arriving
+     */
+    LatencyHistogram.Summary getBank2Latency();
+
+    /**
+     * @return time taken to hand a batch of bank writes to the MIDI OUT device
+     */
+    LatencyHistogram.Summary getSendDuration();
+
+    /**
+     * @return time taken to open a MIDI device
+     */
+    LatencyHistogram.Summary getDeviceOpen();
+
+    /**
+     * @return bank requests that got no reply in time
+     */
+    long getTimeouts();
+
+    /**
+     * @return writes repeated because read-back verification failed
+     */
+    long getRetries();
+
+    /**
+     * @return times the MIDI OUT device was reopened after failing
+     */
+    long getReconnects();
+
+    /**
+     * @return MIDI messages sent to the EWI-USB
+     */
+    long getMessagesSent();
+
+    /**
+     * @return bytes sent to the EWI-USB
+     */
+    long getBytesSent();
+
+    /**
+     * @return sysex messages received from the EWI-USB
+     */
+    long getMessagesReceived();
+
+    /**
+     * @return bytes of sysex received from the EWI-USB
+     */
+    long getBytesReceived();
+
+    /**
+     * Discards every figure collected so far.
+     */
+    void reset();
+
+    /**
+     * @return every figure, as readable text
+     */
+    String dump();
+}
@@ -0,0 +1,395 @@
+/*
+ * Copyright (C) 2016 Greg Lyons <greglyons50+github@gmail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package us.voxg.jewiusb;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import javax.sound.midi.InvalidMidiDataException;
+import javax.sound.midi.MidiDevice;
+import javax.sound.midi.MidiMessage;
+import javax.sound.midi.MidiSystem;
+import javax.sound.midi.MidiUnavailableException;
+import javax.sound.midi.Receiver;
+import javax.sound.midi.SysexMessage;
+import javax.sound.midi.Transmitter;
+
+/**
+ * Keeps the selected MIDI IN/OUT pair open between operations, with a
+ * long-lived UtilityReceiver attached to the input.  Opening a port can be
+ * slow on some systems, so it is done once; if the device goes away the
+ * session reopens it the next time it is used.
+ * <p>
+ * A session is not thread-safe.  It is meant to be used only from the MIDI
+ * I/O thread.
+ * @author Greg Lyons <greglyons50+github@gmail.com>
+ */
+public class EwiSession implements AutoCloseable {
+    /**
+     * Creates a session whose listener updates the Config provided.  No
+     * device is opened until one is selected and used.
+     * @param c the Config to update with dumps received from the EWI
+     */
+    public EwiSession(Config c) {
+        listener = new UtilityReceiver(c);
+        listener.setMetrics(metrics);
+    }
+
+    /**
+     * Chooses the devices to talk to.  Devices that are no longer selected
+     * are closed; the new ones are opened on first use.
+     * @param in the MIDI IN device, or null if only sending
+     * @param out the MIDI OUT device, or null if only listening
+     */
+    public void select(MidiDevice.Info in, MidiDevice.Info out) {
+        if (in != null && !in.equals(inInfo)) {
+            closeInput();
+            inInfo = in;
+        }
+        if (out != null && !out.equals(outInfo)) {
+            closeOutput();
+            outInfo = out;
+        }
+        metrics.setDevices(inInfo, outInfo);
+    }
+
+    /**
+     * Returns the timings and counts of this session's traffic.
+     * @return the metrics
+     */
+    public EwiMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Returns the pacer that every message to MIDI OUT goes through.
+     * @return the pacer
+     */
+    public PacedReceiver getPacer() {
+        return pacer;
+    }
+
+    /**
+     * Returns a receiver that sends to the selected MIDI OUT device, paced by
+     * getPacer().  If a send fails because the device has been closed
+     * underneath us, the device is reopened and the message sent again.
+     * @return the output receiver
+     * @throws MidiUnavailableException if the device can't be opened
+     */
+    public Receiver getOutput() throws MidiUnavailableException {
+        openOutput();
+        return pacer;
+    }
+
+    /**
+     * Starts a timed sequence of messages to the selected MIDI OUT device.
+     * The sequence is timed by the device's clock only if the device is
+     * known to honour timestamps (see setDeviceTimestamps()); otherwise the
+     * MIDI I/O thread waits for each message.
+     * @return the sender for the sequence; its messages are paced as well
+     * @throws MidiUnavailableException if the device can't be opened
+     */
+    public ScheduledSender schedule() throws MidiUnavailableException {
+        openOutput();
+        long position = -1;
+        if (deviceTimestamps || output instanceof EmulatedEwi) {
+            position = output.getMicrosecondPosition();
+        }
+        return new ScheduledSender(pacer, position, SCHEDULE_LEAD);
+    }
+
+    /**
+     * Trusts the MIDI OUT device to hold timestamped messages until their
+     * time.  Most don't, even among those reporting a clock, so this is off
+     * by default; the emulator is always trusted.
+     * @param on true to stamp timed sequences with device times
+     */
+    public void setDeviceTimestamps(boolean on) {
+        deviceTimestamps = on;
+    }
+
+    /**
+     * Returns the listener attached to the selected MIDI IN device, opening
+     * the device if necessary.
+     * @return the listener
+     * @throws MidiUnavailableException if the device can't be opened
+     */
+    public UtilityReceiver getListener() throws MidiUnavailableException {
+        openInput();
+        return listener;
+    }
+
+    /**
+     * Sends what the EWI-USB plays (everything on MIDI IN but sysex) to a
+     * receiver as well.
+     * @param r the receiver, e.g. a PerformanceMonitor
+     */
+    public void addMonitor(Receiver r) {
+        monitors.add(r);
+        updateMonitors();
+    }
+
+    /**
+     * Stops sending to a receiver added with addMonitor().
+     * @param r the receiver
+     */
+    public void removeMonitor(Receiver r) {
+        monitors.remove(r);
+        updateMonitors();
+    }
+
+    private void updateMonitors() {
+        if (monitors.isEmpty()) {
+            listener.setPassThrough(null);
+        } else if (monitors.size() == 1) {
+            listener.setPassThrough(monitors.get(0));
+        } else {
+            final Receiver[] targets = monitors.toArray(new Receiver[monitors.size()]);
+            listener.setPassThrough(new Receiver() {
+                @Override
+                public void send(MidiMessage message, long timeStamp) {
+                    for (Receiver r : targets) {
+                        r.send(message, timeStamp);
+                    }
+                }
+
+                @Override
+                public void close() {
+                }
+            });
+        }
+    }
+
+    /**
+     * Starts or stops recording the session's traffic in both directions.
+     * The caller remains responsible for closing the log.
+     * @param log the log to record to, or null to stop recording
+     */
+    public void setRecorder(TrafficLog log) {
+        recorder = log;
+        pacer.setTarget((log == null) ? sessionReceiver
+                : new RecordingReceiver(sessionReceiver, log, TrafficLog.OUT));
+        if (transmitter != null) {
+            transmitter.setReceiver(inputReceiver());
+        }
+    }
+
+    /**
+     * Puts the EWI-USB into sysex mode until the returned transaction is
+     * closed.  If a transaction is already open, it is joined instead, so
+     * writeBanks() and readBanks() called inside one share its mode switch.
+     * @return the transaction
+     * @throws InvalidMidiDataException if the mode switch can't be built
+     * @throws MidiUnavailableException if the MIDI OUT device can't be opened
+     */
+    public SysexTransaction beginSysex()
+            throws InvalidMidiDataException, MidiUnavailableException {
+        if (transaction != null && transaction.isOpen()) {
+            return transaction.begin();
+        }
+        transaction = new SysexTransaction(getOutput());
+        return transaction;
+    }
+
+    /**
+     * Sends bank writes to the EWI-USB in sysex mode.
+     * @param messages the bank writes, e.g. from Config.toDirtySysex()
+     * @throws InvalidMidiDataException if the mode switch can't be built
+     * @throws MidiUnavailableException if the MIDI OUT device can't be opened
+     */
+    public void writeBanks(SysexMessage[] messages)
+            throws InvalidMidiDataException, MidiUnavailableException {
+        writeBanks(messages, messages.length);
+    }
+
+    /**
+     * Like writeBanks(SysexMessage[]), but sends only the first count
+     * messages, for use with a SysexEncoder.
+     * @param messages the bank writes
+     * @param count how many of the messages to send
+     * @throws InvalidMidiDataException if the mode switch can't be built
+     * @throws MidiUnavailableException if the MIDI OUT device can't be opened
+     */
+    public void writeBanks(SysexMessage[] messages, int count)
+            throws InvalidMidiDataException, MidiUnavailableException {
+        long start = System.nanoTime();
+        try (SysexTransaction t = beginSysex()) {
+            for (int i = 0; i < count; i++) {
+                t.send(messages[i]);
+            }
+        }
+        metrics.sent(System.nanoTime() - start);
+    }
+
+    /**
+     * Asks the EWI-USB for the given banks, all at once, and waits for the
+     * dumps to be applied to the listener's Config.
+     * @param timeout the maximum time to wait for all banks
+     * @param unit the unit of the timeout argument
+     * @param msbs the address MSBs of the banks to read
+     * @return a bit set of the banks received (bit n for MSB n)
+     * @throws InvalidMidiDataException if a request can't be built
+     * @throws MidiUnavailableException if a device can't be opened
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public int readBanks(long timeout, TimeUnit unit, int... msbs)
+            throws InvalidMidiDataException, MidiUnavailableException,
+                   InterruptedException {
+        UtilityReceiver in = getListener();
+        try (SysexTransaction t = beginSysex()) {
+            RequestPipeline pipeline = new RequestPipeline(t.getReceiver(), in);
+            pipeline.setMetrics(metrics);
+            pipeline.setPacer(pacer);
+            for (int msb : msbs) {
+                pipeline.add(msb);
+            }
+            return pipeline.run(timeout, unit);
+        }
+    }
+
+    /**
+     * Closes both devices.  The session may be used again afterwards.
+     */
+    @Override
+    public void close() {
+        closeInput();
+        closeOutput();
+    }
+
+    private void openInput() throws MidiUnavailableException {
+        if (inInfo == null)
+            throw new MidiUnavailableException("No MIDI IN device selected");
+        if (input != null && input.isOpen()) {
+            return;
+        }
+        closeInput();
+        long start = System.nanoTime();
+        MidiDevice d = MidiSystem.getMidiDevice(inInfo);
+        d.open();
+        metrics.opened(System.nanoTime() - start);
+        try {
+            transmitter = d.getTransmitter();
+        } catch (MidiUnavailableException ex) {
+            d.close();
+            throw ex;
+        }
+        transmitter.setReceiver(inputReceiver());
+        input = d;
+    }
+
+    private void openOutput() throws MidiUnavailableException {
+        if (outInfo == null)
+            throw new MidiUnavailableException("No MIDI OUT device selected");
+        if (output != null && output.isOpen()) {
+            return;
+        }
+        closeOutput();
+        long start = System.nanoTime();
+        MidiDevice d = MidiSystem.getMidiDevice(outInfo);
+        d.open();
+        metrics.opened(System.nanoTime() - start);
+        try {
+            receiver = d.getReceiver();
+        } catch (MidiUnavailableException ex) {
+            d.close();
+            throw ex;
+        }
+        output = d;
+    }
+
+    private Receiver inputReceiver() {
+        return (recorder == null) ? listener
+                : new RecordingReceiver(listener, recorder, TrafficLog.IN);
+    }
+
+    private void closeInput() {
+        if (transmitter != null) {
+            transmitter.close();
+            transmitter = null;
+        }
+        if (input != null) {
+            input.close();
+            input = null;
+        }
+    }
+
+    private void closeOutput() {
+        if (receiver != null) {
+            receiver.close();
+            receiver = null;
+        }
+        if (output != null) {
+            output.close();
+            output = null;
+        }
+    }
+
+    /**
+     * Forwards to the current output receiver, reconnecting once if the
+     * device has disappeared since it was opened.
+     */
+    private class SessionReceiver implements Receiver {
+        @Override
+        public void send(MidiMessage message, long timeStamp) {
+            try {
+                openOutput();
+                receiver.send(message, timeStamp);
+            } catch (IllegalStateException | MidiUnavailableException ex) {
+                metrics.reconnected();
+                closeOutput();
+                try {
+                    openOutput();
+                } catch (MidiUnavailableException ex2) {
+                    throw new IllegalStateException(
+                            "MIDI OUT device is no longer available", ex2);
+                }
+                receiver.send(message, timeStamp);
+            }
+            metrics.messageSent(message.getLength());
+        }
+
+        /**
+         * Does nothing; the session decides when the device is closed.
+         */
+        @Override
+        public void close() {
+        }
+    }
+
+    // Bytes per millisecond; ten times DIN MIDI, well within USB's reach
+    private static final double DEFAULT_RATE = 32;
+    // Enough for a whole configuration write without waiting
+    private static final int DEFAULT_BURST = 128;
+    // Microseconds between scheduling a sequence and its first message
+    private static final long SCHEDULE_LEAD = 20000;
+
+    private final UtilityReceiver listener;
+    private final EwiMetrics metrics = new EwiMetrics();
+    private final Receiver sessionReceiver = new SessionReceiver();
+    private final PacedReceiver pacer =
+            new PacedReceiver(sessionReceiver, DEFAULT_RATE, DEFAULT_BURST);
+    private TrafficLog recorder;
+    private SysexTransaction transaction;
+    private boolean deviceTimestamps = false;
+    private final List<Receiver> monitors = new ArrayList<>();
+    private MidiDevice.Info inInfo;
+    private MidiDevice.Info outInfo;
+    private MidiDevice input;
+    private MidiDevice output;
+    private Transmitter transmitter;
+    private Receiver receiver;
+}
@@ -16,27 +16,44 @@
  */
 package us.voxg.jewiusb;
 
+import java.awt.Component;
 import java.awt.Desktop;
+import java.awt.Font;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import java.awt.event.WindowAdapter;
+import java.awt.event.WindowEvent;
 import java.io.File;
 import java.io.IOException;
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.util.ArrayList;
+import java.util.EnumMap;
 import java.util.Enumeration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
 import javax.sound.midi.InvalidMidiDataException;
 import javax.sound.midi.MidiDevice;
-import javax.sound.midi.MidiSystem;
-import javax.sound.midi.MidiUnavailableException;
-import javax.sound.midi.Receiver;
-import javax.sound.midi.ShortMessage;
 import javax.sound.midi.SysexMessage;
-import javax.sound.midi.Transmitter;
 import javax.swing.AbstractButton;
 import javax.swing.ButtonGroup;
 import javax.swing.ButtonModel;
 import javax.swing.ImageIcon;
+import javax.swing.JComboBox;
+import javax.swing.JComponent;
 import javax.swing.JFileChooser;
+import javax.swing.JMenu;
 import javax.swing.JOptionPane;
 import javax.swing.JRadioButtonMenuItem;
+import javax.swing.JScrollPane;
+import javax.swing.JSlider;
+import javax.swing.JTextArea;
+import javax.swing.SwingUtilities;
+import javax.swing.SwingWorker;
 
 /**
  *
@@ -51,9 +68,17 @@ public class JewiGui extends javax.swing.JFrame {
         this.midiOutGroup = new ButtonGroup();
         this.midiInGroup = new ButtonGroup();
         conf = new Config();
+        session = new EwiSession(conf);
+        session.getMetrics().register();
+        liveEdit = new LiveEditSender(conf, midiExecutor, new LiveEditSink());
+        liveEdit.setMaxRate(Integer.getInteger("jewiusb.liveEditRate", 20));
+        session.getPacer().setMaxRate(Integer.getInteger("jewiusb.sendRate", 32));
+        session.setDeviceTimestamps(Boolean.getBoolean("jewiusb.deviceTimestamps"));
         initComponents();
+        bindControls();
         updateGuiFromConfig();
-        updateMidiDevices();
+        setStatus("Looking for MIDI devices...", "");
+        discovery.start(Long.getLong("jewiusb.devicePoll", 5000));
         fileChooser = new JFileChooser();
         fileChooser.setCurrentDirectory(new File(System.getProperty("user.home")));
         setIconImage(new ImageIcon(getClass().getResource("/resources/ewi-usb-config.png")).getImage());
@@ -113,9 +138,18 @@ public class JewiGui extends javax.swing.JFrame {
         midi_in_menu = new javax.swing.JMenu();
         midi_out_menu = new javax.swing.JMenu();
         midi_send_item = new javax.swing.JMenuItem();
+        midi_live_item = new javax.swing.JCheckBoxMenuItem();
+        midi_morph_item = new javax.swing.JMenuItem();
+        midi_verify_item = new javax.swing.JCheckBoxMenuItem();
         midi_receive_item = new javax.swing.JMenuItem();
+        midi_cancel_item = new javax.swing.JMenuItem();
+        midi_stats_item = new javax.swing.JMenuItem();
+        midi_monitor_item = new javax.swing.JMenuItem();
+        midi_latency_item = new javax.swing.JMenuItem();
+        midi_record_item = new javax.swing.JCheckBoxMenuItem();
         midi_separator = new javax.swing.JPopupMenu.Separator();
         midi_refresh_item = new javax.swing.JMenuItem();
+        midi_detect_item = new javax.swing.JMenuItem();
         help_menu = new javax.swing.JMenu();
         help_online = new javax.swing.JMenuItem();
         help_about_item = new javax.swing.JMenuItem();
@@ -485,6 +519,25 @@ public class JewiGui extends javax.swing.JFrame {
         });
         midi_menu.add(midi_send_item);
 
+        midi_live_item.setText("Live Edit");
+        midi_live_item.addActionListener(new java.awt.event.ActionListener() {
+            public void actionPerformed(java.awt.event.ActionEvent evt) {
+                midi_live_itemActionPerformed(evt);
+            }
+        });
+        midi_menu.add(midi_live_item);
+
+        midi_morph_item.setText("Morph to Sysex File...");
+        midi_morph_item.addActionListener(new java.awt.event.ActionListener() {
+            public void actionPerformed(java.awt.event.ActionEvent evt) {
+                midi_morph_itemActionPerformed(evt);
+            }
+        });
+        midi_menu.add(midi_morph_item);
+
+        midi_verify_item.setText("Verify Writes");
+        midi_menu.add(midi_verify_item);
+
         midi_receive_item.setText("Receive Config From EWI");
         midi_receive_item.addActionListener(new java.awt.event.ActionListener() {
             public void actionPerformed(java.awt.event.ActionEvent evt) {
@@ -492,6 +545,47 @@ public class JewiGui extends javax.swing.JFrame {
             }
         });
         midi_menu.add(midi_receive_item);
+
+        midi_cancel_item.setEnabled(false);
+        midi_cancel_item.setText("Cancel MIDI Operation");
+        midi_cancel_item.addActionListener(new java.awt.event.ActionListener() {
+            public void actionPerformed(java.awt.event.ActionEvent evt) {
+                midi_cancel_itemActionPerformed(evt);
+            }
+        });
+        midi_menu.add(midi_cancel_item);
+
+        midi_stats_item.setText("MIDI Statistics...");
+        midi_stats_item.addActionListener(new java.awt.event.ActionListener() {
+            public void actionPerformed(java.awt.event.ActionEvent evt) {
+                midi_stats_itemActionPerformed(evt);
+            }
+        });
+        midi_menu.add(midi_stats_item);
+
+        midi_monitor_item.setText("Performance Monitor...");
+        midi_monitor_item.addActionListener(new java.awt.event.ActionListener() {
+            public void actionPerformed(java.awt.event.ActionEvent evt) {
+                midi_monitor_itemActionPerformed(evt);
+            }
+        });
+        midi_menu.add(midi_monitor_item);
+
+        midi_latency_item.setText("Measure Latency...");
+        midi_latency_item.addActionListener(new java.awt.event.ActionListener() {
+            public void actionPerformed(java.awt.event.ActionEvent evt) {
+                midi_latency_itemActionPerformed(evt);
+            }
+        });
+        midi_menu.add(midi_latency_item);
+
+        midi_record_item.setText("Record MIDI Traffic...");
+        midi_record_item.addActionListener(new java.awt.event.ActionListener() {
+            public void actionPerformed(java.awt.event.ActionEvent evt) {
+                midi_record_itemActionPerformed(evt);
+            }
+        });
+        midi_menu.add(midi_record_item);
         midi_menu.add(midi_separator);
 
         midi_refresh_item.setText("Refresh MIDI Device List");
@@ -502,6 +596,14 @@ public class JewiGui extends javax.swing.JFrame {
         });
         midi_menu.add(midi_refresh_item);
 
+        midi_detect_item.setText("Detect EWI");
+        midi_detect_item.addActionListener(new java.awt.event.ActionListener() {
+            public void actionPerformed(java.awt.event.ActionEvent evt) {
+                midi_detect_itemActionPerformed(evt);
+            }
+        });
+        midi_menu.add(midi_detect_item);
+
         menubar.add(midi_menu);
 
         help_menu.setText("Help");
@@ -554,93 +656,63 @@ public class JewiGui extends javax.swing.JFrame {
     }//GEN-LAST:event_file_menuActionPerformed
 
     private void breath_gain_sliderStateChanged(javax.swing.event.ChangeEvent evt) {//GEN-FIRST:event_breath_gain_sliderStateChanged
-        conf.setBreathGain(breath_gain_slider.getValue());
+        sliderChanged(Parameter.BREATH_GAIN);
     }//GEN-LAST:event_breath_gain_sliderStateChanged
 
     private void bite_gain_sliderStateChanged(javax.swing.event.ChangeEvent evt) {//GEN-FIRST:event_bite_gain_sliderStateChanged
-        conf.setBiteGain(bite_gain_slider.getValue());
+        sliderChanged(Parameter.BITE_GAIN);
     }//GEN-LAST:event_bite_gain_sliderStateChanged
 
     private void bite_ac_gain_sliderStateChanged(javax.swing.event.ChangeEvent evt) {//GEN-FIRST:event_bite_ac_gain_sliderStateChanged
-        conf.setBiteAcGain(bite_ac_gain_slider.getValue());
+        sliderChanged(Parameter.BITE_AC_GAIN);
     }//GEN-LAST:event_bite_ac_gain_sliderStateChanged
 
     private void pitch_bend_gain_sliderStateChanged(javax.swing.event.ChangeEvent evt) {//GEN-FIRST:event_pitch_bend_gain_sliderStateChanged
-        conf.setPitchBendGain(pitch_bend_gain_slider.getValue());
+        sliderChanged(Parameter.PITCH_BEND_GAIN);
     }//GEN-LAST:event_pitch_bend_gain_sliderStateChanged
 
     private void key_delay_sliderStateChanged(javax.swing.event.ChangeEvent evt) {//GEN-FIRST:event_key_delay_sliderStateChanged
-        conf.setKeyDelay(key_delay_slider.getValue());
+        sliderChanged(Parameter.KEY_DELAY);
     }//GEN-LAST:event_key_delay_sliderStateChanged
 
     private void midi_channel_comboActionPerformed(java.awt.event.ActionEvent evt) {//GEN-FIRST:event_midi_channel_comboActionPerformed
-        conf.setMidiChannel(midi_channel_combo.getSelectedIndex());
+        comboChanged(Parameter.MIDI_CHANNEL);
     }//GEN-LAST:event_midi_channel_comboActionPerformed
 
     private void fingering_comboActionPerformed(java.awt.event.ActionEvent evt) {//GEN-FIRST:event_fingering_comboActionPerformed
-        conf.setFingering(fingering_combo.getSelectedIndex());
+        comboChanged(Parameter.FINGERING);
     }//GEN-LAST:event_fingering_comboActionPerformed
 
     private void transpose_comboActionPerformed(java.awt.event.ActionEvent evt) {//GEN-FIRST:event_transpose_comboActionPerformed
-        conf.setTranspose(transpose_combo.getSelectedIndex() + 0x22);
+        comboChanged(Parameter.TRANSPOSE);
     }//GEN-LAST:event_transpose_comboActionPerformed
 
     private void velocity_comboActionPerformed(java.awt.event.ActionEvent evt) {//GEN-FIRST:event_velocity_comboActionPerformed
-        conf.setVelocity(velocity_combo.getSelectedIndex());
+        comboChanged(Parameter.VELOCITY);
     }//GEN-LAST:event_velocity_comboActionPerformed
 
     private void breath_cc1_comboActionPerformed(java.awt.event.ActionEvent evt) {//GEN-FIRST:event_breath_cc1_comboActionPerformed
-        int value = breath_cc1_combo.getSelectedIndex();
-        if (value > 0x77 && value < 0x7f) {
-            value = 0;
-            breath_cc1_combo.setSelectedIndex(0);
-        }
-        conf.setBreathCC1(value);
+        comboChanged(Parameter.BREATH_CC1);
     }//GEN-LAST:event_breath_cc1_comboActionPerformed
 
     private void breath_cc2_comboActionPerformed(java.awt.event.ActionEvent evt) {//GEN-FIRST:event_breath_cc2_comboActionPerformed
-        int value = breath_cc2_combo.getSelectedIndex();
-        if (value > 0x77 && value < 0x7f) {
-            value = 0;
-            breath_cc2_combo.setSelectedIndex(0);
-        }
-        conf.setBreathCC2(value);
+        comboChanged(Parameter.BREATH_CC2);
     }//GEN-LAST:event_breath_cc2_comboActionPerformed
 
     private void bite_cc1_comboActionPerformed(java.awt.event.ActionEvent evt) {//GEN-FIRST:event_bite_cc1_comboActionPerformed
-        int value = bite_cc1_combo.getSelectedIndex();
-        if (value > 0x77 && value < 0x7C) {
-            value = 0;
-            bite_cc1_combo.setSelectedIndex(0);
-        }
-        conf.setBiteCC1(value);
+        comboChanged(Parameter.BITE_CC1);
     }//GEN-LAST:event_bite_cc1_comboActionPerformed
 
     private void bite_cc2_comboActionPerformed(java.awt.event.ActionEvent evt) {//GEN-FIRST:event_bite_cc2_comboActionPerformed
-        int value = bite_cc2_combo.getSelectedIndex();
-        if (value > 0x77 && value < 0x7C) {
-            value = 0;
-            bite_cc2_combo.setSelectedIndex(0);
-        }
-        conf.setBiteCC2(value);
+        comboChanged(Parameter.BITE_CC2);
     }//GEN-LAST:event_bite_cc2_comboActionPerformed
 
     private void pitch_bend_up_comboActionPerformed(java.awt.event.ActionEvent evt) {//GEN-FIRST:event_pitch_bend_up_comboActionPerformed
-        int value = pitch_bend_up_combo.getSelectedIndex();
-        if (value > 0x77 && value < 0x7f) {
-            value = 0;
-            pitch_bend_up_combo.setSelectedIndex(0);
-        }
-        conf.setPitchBendUp(value);
+        comboChanged(Parameter.PITCH_BEND_UP);
     }//GEN-LAST:event_pitch_bend_up_comboActionPerformed
 
     private void pitch_bend_down_comboActionPerformed(java.awt.event.ActionEvent evt) {//GEN-FIRST:event_pitch_bend_down_comboActionPerformed
-        int value = pitch_bend_down_combo.getSelectedIndex();
-        if (value > 0x77 && value < 0x7f) {
-            value = 0;
-            pitch_bend_down_combo.setSelectedIndex(0);
-        }
-        conf.setPitchBendDown(value);
+        comboChanged(Parameter.PITCH_BEND_DOWN);
     }//GEN-LAST:event_pitch_bend_down_comboActionPerformed
 
     private void midi_menuActionPerformed(java.awt.event.ActionEvent evt) {//GEN-FIRST:event_midi_menuActionPerformed
@@ -648,7 +720,20 @@ public class JewiGui extends javax.swing.JFrame {
     }//GEN-LAST:event_midi_menuActionPerformed
 
     private void midi_refresh_itemActionPerformed(java.awt.event.ActionEvent evt) {//GEN-FIRST:event_midi_refresh_itemActionPerformed
-        updateMidiDevices();
+        setStatus("Looking for MIDI devices...", "");
+        discovery.refresh(new Runnable() {
+            @Override
+            public void run() {
+                SwingUtilities.invokeLater(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (status.getText().startsWith("Looking for MIDI")) {
+                            setStatus("MIDI devices refreshed", "");
+                        }
+                    }
+                });
+            }
+        });
     }//GEN-LAST:event_midi_refresh_itemActionPerformed
 
     private void file_open_itemActionPerformed(java.awt.event.ActionEvent evt) {//GEN-FIRST:event_file_open_itemActionPerformed
@@ -685,13 +770,82 @@ public class JewiGui extends javax.swing.JFrame {
 
     private void midi_receive_itemActionPerformed(java.awt.event.ActionEvent evt) {//GEN-FIRST:event_midi_receive_itemActionPerformed
         loadSettingsFromEwi();
-        updateGuiFromConfig();
     }//GEN-LAST:event_midi_receive_itemActionPerformed
 
     private void midi_send_itemActionPerformed(java.awt.event.ActionEvent evt) {//GEN-FIRST:event_midi_send_itemActionPerformed
         this.saveSettingsToEwi();
     }//GEN-LAST:event_midi_send_itemActionPerformed
 
+    private void midi_cancel_itemActionPerformed(java.awt.event.ActionEvent evt) {//GEN-FIRST:event_midi_cancel_itemActionPerformed
+        if (!midiExecutor.cancel()) {
+            setStatus("No MIDI operation to cancel", "");
+        }
+    }//GEN-LAST:event_midi_cancel_itemActionPerformed
+
+    private void midi_live_itemActionPerformed(java.awt.event.ActionEvent evt) {//GEN-FIRST:event_midi_live_itemActionPerformed
+        if (midi_live_item.isSelected()) {
+            MidiDevice.Info midiOut = getSelectedDevice(midiOutGroup);
+            if (midiOut == null) {
+                midi_live_item.setSelected(false);
+                setStatus("MIDI OUT devices must be selected", "");
+                notifyError(
+                        "<html>Live edit not started.</br>"
+                        + "The MIDI OUT device must be selected in the MIDI</br>"
+                        + "menu before editing the EWI live.</html>"
+                );
+                return;
+            }
+            MidiDevice.Info outInfo = midiOut;
+            if (!outInfo.equals(lastOutInfo)) {
+                conf.markDirty();
+                lastOutInfo = outInfo;
+            }
+            liveOutInfo = outInfo;
+            setStatus("Live edit: changes are sent to the EWI as you make them", "");
+        } else {
+            setStatus("Live edit off", "");
+        }
+        liveEdit.setEnabled(midi_live_item.isSelected());
+    }//GEN-LAST:event_midi_live_itemActionPerformed
+
+    private void midi_stats_itemActionPerformed(java.awt.event.ActionEvent evt) {//GEN-FIRST:event_midi_stats_itemActionPerformed
+        EwiMetrics metrics = session.getMetrics();
+        JTextArea text = new JTextArea(metrics.dump());
+        text.setEditable(false);
+        text.setFont(new Font(Font.MONOSPACED, Font.PLAIN, 12));
+        Object[] options = { "Close", "Reset" };
+        int choice = JOptionPane.showOptionDialog(this, new JScrollPane(text),
+                "MIDI Statistics", JOptionPane.DEFAULT_OPTION,
+                JOptionPane.INFORMATION_MESSAGE, null, options, options[0]);
+        if (choice == 1) {
+            metrics.reset();
+        }
+    }//GEN-LAST:event_midi_stats_itemActionPerformed
+
+    private void midi_record_itemActionPerformed(java.awt.event.ActionEvent evt) {//GEN-FIRST:event_midi_record_itemActionPerformed
+        if (midi_record_item.isSelected()) {
+            startRecording();
+        } else {
+            stopRecording();
+        }
+    }//GEN-LAST:event_midi_record_itemActionPerformed
+
+    private void midi_monitor_itemActionPerformed(java.awt.event.ActionEvent evt) {//GEN-FIRST:event_midi_monitor_itemActionPerformed
+        openMonitor();
+    }//GEN-LAST:event_midi_monitor_itemActionPerformed
+
+    private void midi_latency_itemActionPerformed(java.awt.event.ActionEvent evt) {//GEN-FIRST:event_midi_latency_itemActionPerformed
+        openLatencyMeter();
+    }//GEN-LAST:event_midi_latency_itemActionPerformed
+
+    private void midi_morph_itemActionPerformed(java.awt.event.ActionEvent evt) {//GEN-FIRST:event_midi_morph_itemActionPerformed
+        morphToFile();
+    }//GEN-LAST:event_midi_morph_itemActionPerformed
+
+    private void midi_detect_itemActionPerformed(java.awt.event.ActionEvent evt) {//GEN-FIRST:event_midi_detect_itemActionPerformed
+        detectEwi();
+    }//GEN-LAST:event_midi_detect_itemActionPerformed
+
     /**
      * @param args the command line arguments
      */
@@ -728,70 +882,476 @@ public class JewiGui extends javax.swing.JFrame {
         });
     }
     
-    private void updateGuiFromConfig() {
+    /**
+     * Ties each control to the parameter it edits, and sets its range from
+     * the parameter table.
+     */
+    private void bindControls() {
         // Setup tab
-        breath_gain_slider.setValue(conf.getBreathGain());
-        bite_gain_slider.setValue(conf.getBiteGain());
-        bite_ac_gain_slider.setValue(conf.getBiteAcGain());
-        pitch_bend_gain_slider.setValue(conf.getPitchBendGain());
-        key_delay_slider.setValue(conf.getKeyDelay());
+        sliders.put(Parameter.BREATH_GAIN, breath_gain_slider);
+        sliders.put(Parameter.BITE_GAIN, bite_gain_slider);
+        sliders.put(Parameter.BITE_AC_GAIN, bite_ac_gain_slider);
+        sliders.put(Parameter.PITCH_BEND_GAIN, pitch_bend_gain_slider);
+        sliders.put(Parameter.KEY_DELAY, key_delay_slider);
         // Performance tab
-        midi_channel_combo.setSelectedIndex(conf.getMidiChannel());
-        fingering_combo.setSelectedIndex(conf.getFingering());
-        transpose_combo.setSelectedIndex(conf.getTranspose() - 0x22);
-        velocity_combo.setSelectedIndex(conf.getVelocity());
+        combos.put(Parameter.MIDI_CHANNEL, midi_channel_combo);
+        combos.put(Parameter.FINGERING, fingering_combo);
+        combos.put(Parameter.TRANSPOSE, transpose_combo);
+        combos.put(Parameter.VELOCITY, velocity_combo);
         // Controller tab
-        breath_cc1_combo.setSelectedIndex(conf.getBreathCC1());
-        breath_cc2_combo.setSelectedIndex(conf.getBreathCC2());
-        bite_cc1_combo.setSelectedIndex(conf.getBiteCC1());
-        bite_cc2_combo.setSelectedIndex(conf.getBiteCC2());
-        pitch_bend_up_combo.setSelectedIndex(conf.getPitchBendUp());
-        pitch_bend_down_combo.setSelectedIndex(conf.getPitchBendDown());
+        combos.put(Parameter.BREATH_CC1, breath_cc1_combo);
+        combos.put(Parameter.BREATH_CC2, breath_cc2_combo);
+        combos.put(Parameter.BITE_CC1, bite_cc1_combo);
+        combos.put(Parameter.BITE_CC2, bite_cc2_combo);
+        combos.put(Parameter.PITCH_BEND_UP, pitch_bend_up_combo);
+        combos.put(Parameter.PITCH_BEND_DOWN, pitch_bend_down_combo);
+        for (Map.Entry<Parameter, JSlider> e : sliders.entrySet()) {
+            e.getValue().setMinimum(e.getKey().getMin());
+            e.getValue().setMaximum(e.getKey().getMax());
+        }
+    }
+
+    private void sliderChanged(Parameter p) {
+        conf.set(p, sliders.get(p).getValue());
+        liveEdit.changed();
+    }
+
+    private void comboChanged(Parameter p) {
+        JComboBox<String> combo = combos.get(p);
+        int value = combo.getSelectedIndex() + p.getMin();
+        if (p.isReserved(value)) {
+            value = p.getMin();
+            combo.setSelectedIndex(0);
+        }
+        conf.set(p, value);
+        liveEdit.changed();
+    }
+
+    private void updateGuiFromConfig() {
+        // One snapshot, so a dump arriving meanwhile can't leave the
+        // controls showing a mix of old and new values
+        Config.Snapshot snapshot = conf.snapshot();
+        for (Map.Entry<Parameter, JSlider> e : sliders.entrySet()) {
+            e.getValue().setValue(snapshot.get(e.getKey()));
+        }
+        for (Map.Entry<Parameter, JComboBox<String>> e : combos.entrySet()) {
+            Parameter p = e.getKey();
+            e.getValue().setSelectedIndex(snapshot.get(p) - p.getMin());
+        }
     }
     
-    private void updateMidiDevices() {
-        Enumeration e = midiInGroup.getElements();
-        while (e.hasMoreElements()) {
-            midiInGroup.remove((AbstractButton)e.nextElement());
+    /**
+     * Brings the device menus up to date with what discovery has found.
+     * Existing choices stay selected unless their device has gone; the ports
+     * the EWI was last used on are selected if nothing else is, and if that
+     * still leaves a choice open, the EWI is detected.
+     */
+    private void devicesChanged(List<DeviceDiscovery.Device> added,
+            List<DeviceDiscovery.Device> removed) {
+        for (DeviceDiscovery.Device d : removed) {
+            removeDeviceItem(midi_in_menu, midiInGroup, d.getInfo());
+            removeDeviceItem(midi_out_menu, midiOutGroup, d.getInfo());
         }
-        midi_in_menu.removeAll();
-        e = midiOutGroup.getElements();
-        while (e.hasMoreElements()) {
-            midiOutGroup.remove((AbstractButton)e.nextElement());
+        for (DeviceDiscovery.Device d : added) {
+            if (d.isInput()) {
+                addDeviceItem(midi_in_menu, midiInGroup, d.getInfo());
+            }
+            if (d.isOutput()) {
+                addDeviceItem(midi_out_menu, midiOutGroup, d.getInfo());
+            }
         }
-        midi_out_menu.removeAll();
-        try {
-            infos = MidiSystem.getMidiDeviceInfo();
-            midi_ins = new int[infos.length];
-            midi_outs = new int[infos.length];
-            int in_counter = 0, out_counter = 0, infos_counter = 0;
-            for (MidiDevice.Info i : infos) {
-                MidiDevice d = MidiSystem.getMidiDevice(i);
-                if (d.getMaxTransmitters() != 0) {
-                    midi_ins[in_counter++] = infos_counter;
-                    JRadioButtonMenuItem mi = new JRadioButtonMenuItem(i.getName());
-                    midiInGroup.add(mi);
-                    midi_in_menu.add(mi);
-                    if (i.getName().contains("EWI")) {
-                        midiInGroup.setSelected(mi.getModel(), true);
-                    }
+        StringBuilder sb = new StringBuilder("MIDI devices changed:");
+        for (DeviceDiscovery.Device d : added) {
+            sb.append(" +").append(d);
+        }
+        for (DeviceDiscovery.Device d : removed) {
+            sb.append(" -").append(d);
+        }
+        setStatus(sb.toString(), "");
+        if (!added.isEmpty() && (getSelectedDevice(midiInGroup) == null
+                || getSelectedDevice(midiOutGroup) == null)) {
+            detectEwi();
+        }
+    }
+
+    private void addDeviceItem(JMenu menu, ButtonGroup group,
+            MidiDevice.Info info) {
+        JRadioButtonMenuItem mi = new JRadioButtonMenuItem(info.getName());
+        mi.putClientProperty(MidiDevice.Info.class, info);
+        mi.addActionListener(new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                portMapping.save(getSelectedDevice(midiInGroup),
+                        getSelectedDevice(midiOutGroup));
+            }
+        });
+        group.add(mi);
+        menu.add(mi);
+        boolean remembered = (group == midiInGroup)
+                ? portMapping.isInput(info) : portMapping.isOutput(info);
+        if (group.getSelection() == null && remembered) {
+            group.setSelected(mi.getModel(), true);
+        }
+    }
+
+    private static boolean selectDeviceItem(JMenu menu, ButtonGroup group,
+            MidiDevice.Info info) {
+        for (Component c : menu.getMenuComponents()) {
+            AbstractButton item = (AbstractButton)c;
+            if (info.equals(item.getClientProperty(MidiDevice.Info.class))) {
+                group.setSelected(item.getModel(), true);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Falls back on choosing a port by name when nothing answered detection.
+     */
+    private static void selectByName(JMenu menu, ButtonGroup group) {
+        if (group.getSelection() != null) {
+            return;
+        }
+        for (Component c : menu.getMenuComponents()) {
+            AbstractButton item = (AbstractButton)c;
+            if (item.getText().contains("EWI")) {
+                group.setSelected(item.getModel(), true);
+                return;
+            }
+        }
+    }
+
+    /**
+     * Finds the EWI's ports by Identity Request and selects and remembers
+     * them.  The session's devices are closed for the duration, so this
+     * waits while anything is streaming to or from the EWI.
+     */
+    private void detectEwi() {
+        if (detecting) {
+            return;
+        }
+        if (monitorWindow != null || latencyWindow != null
+                || liveEdit.isEnabled() || trafficLog != null) {
+            setStatus("Close the monitors and stop live edit and recording"
+                    + " to detect the EWI", "");
+            return;
+        }
+        final List<MidiDevice.Info> ins = new ArrayList<>();
+        final List<MidiDevice.Info> outs = new ArrayList<>();
+        for (DeviceDiscovery.Device d : discovery.getDevices()) {
+            if (d.isPort() && d.isInput()) {
+                ins.add(d.getInfo());
+            }
+            if (d.isPort() && d.isOutput()) {
+                outs.add(d.getInfo());
+            }
+        }
+        detecting = true;
+        midiExecutor.submit(new MidiWorker<EwiDetector.Result>(
+                "Looking for the EWI...") {
+            @Override
+            protected EwiDetector.Result doInBackground() throws Exception {
+                session.close();
+                stage("Error detecting the EWI");
+                return new EwiDetector(ins, outs).detect(detectTimeout,
+                        TimeUnit.MILLISECONDS);
+            }
+
+            @Override
+            protected void succeeded(EwiDetector.Result result) {
+                detecting = false;
+                if (result == null) {
+                    selectByName(midi_in_menu, midiInGroup);
+                    selectByName(midi_out_menu, midiOutGroup);
+                    setStatus("No EWI answered on any MIDI port", "");
+                    return;
                 }
-                if (d.getMaxReceivers() != 0) {
-                    midi_outs[out_counter++] = infos_counter;
-                    JRadioButtonMenuItem mi = new JRadioButtonMenuItem(i.getName());
-                    midiOutGroup.add(mi);
-                    midi_out_menu.add(mi);
-                    if (i.getName().contains("EWI")) {
-                        midiOutGroup.setSelected(mi.getModel(), true);
+                selectDeviceItem(midi_in_menu, midiInGroup, result.getInput());
+                selectDeviceItem(midi_out_menu, midiOutGroup, result.getOutput());
+                portMapping.save(result.getInput(), result.getOutput());
+                setStatus("EWI found on " + result.getInput().getName()
+                        + " / " + result.getOutput().getName(),
+                        result.toString());
+            }
+
+            @Override
+            protected void failed() {
+                detecting = false;
+            }
+        });
+    }
+
+    private static void removeDeviceItem(JMenu menu, ButtonGroup group,
+            MidiDevice.Info info) {
+        for (Component c : menu.getMenuComponents()) {
+            JComponent item = (JComponent)c;
+            if (info.equals(item.getClientProperty(MidiDevice.Info.class))) {
+                group.remove((AbstractButton)item);
+                menu.remove(item);
+                return;
+            }
+        }
+    }
+
+    private void openMonitor() {
+        if (monitorWindow != null) {
+            monitorWindow.toFront();
+            return;
+        }
+        MidiDevice.Info midiIn = getSelectedDevice(midiInGroup);
+        if (midiIn == null) {
+            setStatus("MIDI IN device must be selected", "");
+            notifyError(
+                    "<html>Monitor not started.</br>"
+                    + "The MIDI IN device must be selected in the MIDI</br>"
+                    + "menu to watch what the EWI plays.</html>"
+            );
+            return;
+        }
+        final MidiDevice.Info inInfo = midiIn;
+        final PerformanceMonitor monitor = new PerformanceMonitor();
+        midiExecutor.submit(new MidiWorker<Void>("Opening MIDI IN device...") {
+            @Override
+            protected Void doInBackground() throws Exception {
+                session.select(inInfo, null);
+                stage("Could not open MIDI IN device");
+                session.getListener();
+                session.addMonitor(monitor);
+                return null;
+            }
+
+            @Override
+            protected void succeeded(Void result) {
+                setStatus("Monitoring " + inInfo.getName(), "");
+                monitorWindow = new MonitorWindow(JewiGui.this, monitor, conf,
+                        new Runnable() {
+                    @Override
+                    public void run() {
+                        updateGuiFromConfig();
+                        liveEdit.changed();
+                        setStatus("Calibrated gains applied", "");
+                    }
+                });
+                monitorWindow.addWindowListener(new WindowAdapter() {
+                    @Override
+                    public void windowClosed(WindowEvent e) {
+                        monitorWindow = null;
+                        if (!midiExecutor.isShutdown()) {
+                            midiExecutor.submit(new FutureTask<Void>(new Runnable() {
+                                @Override
+                                public void run() {
+                                    session.removeMonitor(monitor);
+                                }
+                            }, null));
+                        }
                     }
+                });
+                monitorWindow.setVisible(true);
+            }
+        });
+    }
+
+    /**
+     * Glides the EWI from the settings shown to those in a sysex file, which
+     * are shown once the morph is done.
+     */
+    private void morphToFile() {
+        MidiDevice.Info midiOut = getSelectedDevice(midiOutGroup);
+        if (midiOut == null) {
+            setStatus("MIDI OUT device must be selected", "");
+            notifyError(
+                    "<html>Morph not started.</br>"
+                    + "The MIDI OUT device must be selected in the MIDI</br>"
+                    + "menu before attempting to configure the EWI.</html>"
+            );
+            return;
+        }
+        if (fileChooser.showOpenDialog(this) != JFileChooser.APPROVE_OPTION) {
+            return;
+        }
+        File selected = fileChooser.getSelectedFile();
+        final Config target = new Config();
+        try {
+            target.loadSysexFile(selected);
+        } catch (IOException | InvalidMidiDataException e) {
+            setStatus("Error reading file " + selected.getPath(), e.toString());
+            return;
+        }
+        String seconds = JOptionPane.showInputDialog(this,
+                "Morph time in seconds:", "2");
+        if (seconds == null) {
+            return;
+        }
+        final Config.Snapshot from = conf.snapshot();
+        final PresetMorph morph;
+        try {
+            morph = new PresetMorph(from, target.snapshot(),
+                    Math.round(Double.parseDouble(seconds) * 1000));
+        } catch (IllegalArgumentException e) {
+            setStatus("Invalid morph time: " + seconds, "");
+            return;
+        }
+        final MidiDevice.Info outInfo = midiOut;
+        if (!outInfo.equals(lastOutInfo)) {
+            // A different device may hold anything, and the morph only
+            // sends what differs from the current settings
+            conf.markDirty();
+            lastOutInfo = outInfo;
+        }
+        midiExecutor.submit(new MidiWorker<Void>(
+                "Morphing to " + selected.getName() + "...") {
+            @Override
+            protected Void doInBackground() throws Exception {
+                session.select(null, outInfo);
+                stage("Error opening MIDI output device");
+                session.getOutput();
+                stage("Error sending MIDI messages to the EWI");
+                morph.play(session);
+                return null;
+            }
+
+            @Override
+            protected void succeeded(Void result) {
+                Config.Snapshot t = target.snapshot();
+                for (Parameter p : Parameter.values()) {
+                    conf.set(p, t.get(p));
                 }
-                infos_counter++;
+                // Only the parameters that differ from the start were sent
+                conf.markClean(t.withDirty(t.differences(from, 0),
+                        t.differences(from, 2)));
+                updateGuiFromConfig();
+                setStatus("Morph complete in " + morph.getSteps() + " steps", "");
+            }
+
+            @Override
+            protected void failed() {
+                // The EWI may have been left part way
+                Config.Snapshot t = target.snapshot();
+                conf.markDirty(0, t.differences(from, 0));
+                conf.markDirty(2, t.differences(from, 2));
             }
-        } catch (Exception ex) {
-            System.out.println(ex);
+        });
+    }
+
+    private void openLatencyMeter() {
+        if (latencyWindow != null) {
+            latencyWindow.toFront();
+            return;
+        }
+        MidiDevice.Info midiIn = getSelectedDevice(midiInGroup);
+        if (midiIn == null) {
+            setStatus("MIDI IN device must be selected", "");
+            notifyError(
+                    "<html>Measurement not started.</br>"
+                    + "The MIDI IN device must be selected in the MIDI</br>"
+                    + "menu to time what arrives from it.</html>"
+            );
+            return;
+        }
+        MidiDevice.Info midiOut = getSelectedDevice(midiOutGroup);
+        final MidiDevice.Info inInfo = midiIn;
+        final MidiDevice.Info outInfo = midiOut;
+        final LatencyMeter meter = new LatencyMeter();
+        midiExecutor.submit(new MidiWorker<Void>("Opening MIDI devices...") {
+            @Override
+            protected Void doInBackground() throws Exception {
+                session.select(inInfo, outInfo);
+                stage("Could not open MIDI IN device");
+                session.getListener();
+                session.addMonitor(meter);
+                return null;
+            }
+
+            @Override
+            protected void succeeded(Void result) {
+                setStatus("Measuring latency from " + inInfo.getName(), "");
+                String devices = "MIDI IN:   " + inInfo.getName()
+                        + "\nMIDI OUT:  "
+                        + ((outInfo == null) ? "-" : outInfo.getName());
+                Runnable probe = (outInfo == null) ? null : new Runnable() {
+                    @Override
+                    public void run() {
+                        // Skip rather than queue behind a slow operation
+                        if (midiExecutor.isBusy()) {
+                            return;
+                        }
+                        midiExecutor.submit(new FutureTask<Void>(new Callable<Void>() {
+                            @Override
+                            public Void call() throws Exception {
+                                meter.sendProbe(session.getOutput());
+                                return null;
+                            }
+                        }));
+                    }
+                };
+                latencyWindow = new LatencyWindow(JewiGui.this, meter, conf,
+                        devices, probe);
+                latencyWindow.addWindowListener(new WindowAdapter() {
+                    @Override
+                    public void windowClosed(WindowEvent e) {
+                        latencyWindow = null;
+                        if (!midiExecutor.isShutdown()) {
+                            midiExecutor.submit(new FutureTask<Void>(new Runnable() {
+                                @Override
+                                public void run() {
+                                    session.removeMonitor(meter);
+                                }
+                            }, null));
+                        }
+                    }
+                });
+                latencyWindow.setVisible(true);
+            }
+        });
+    }
+
+    private void startRecording() {
+        JFileChooser chooser = new JFileChooser(fileChooser.getCurrentDirectory());
+        chooser.setSelectedFile(new File("traffic.ewilog"));
+        if (chooser.showSaveDialog(this) != JFileChooser.APPROVE_OPTION) {
+            midi_record_item.setSelected(false);
+            return;
         }
-        status.setText("MIDI devices refreshed. Choices have been reset");
-        status.setToolTipText("");
+        final File selected = chooser.getSelectedFile();
+        final TrafficLog log;
+        try {
+            log = new TrafficLog(selected);
+        } catch (IOException ex) {
+            midi_record_item.setSelected(false);
+            setStatus("Error creating file " + selected.getPath(), ex.toString());
+            return;
+        }
+        trafficLog = log;
+        midiExecutor.submit(new FutureTask<Void>(new Runnable() {
+            @Override
+            public void run() {
+                session.setRecorder(log);
+            }
+        }, null));
+        setStatus("Recording MIDI traffic to " + selected.getPath(), "");
+    }
+
+    private void stopRecording() {
+        final TrafficLog log = trafficLog;
+        trafficLog = null;
+        if (log == null) {
+            return;
+        }
+        midiExecutor.submit(new FutureTask<Void>(new Runnable() {
+            @Override
+            public void run() {
+                session.setRecorder(null);
+                try {
+                    log.close();
+                } catch (IOException ex) {
+                    // The records are already in the file
+                }
+            }
+        }, null));
+        IOException error = log.getError();
+        setStatus("Recorded " + log.getRecordCount() + " MIDI messages",
+                (error == null) ? "" : "Recording stopped early: " + error);
     }
 
     private void openSysex() {
@@ -810,18 +1370,16 @@ public class JewiGui extends javax.swing.JFrame {
         }
     }
     
-    private int getGroupSelectedIndex(ButtonGroup group) {
-        int counter = 0;
+    private MidiDevice.Info getSelectedDevice(ButtonGroup group) {
         Enumeration e = group.getElements();
         ButtonModel selectedItem = group.getSelection();
         while (e.hasMoreElements()) {
             AbstractButton b = (AbstractButton)e.nextElement();
             if (b.getModel().equals(selectedItem)) {
-                return counter;
+                return (MidiDevice.Info)b.getClientProperty(MidiDevice.Info.class);
             }
-            counter++;
         }
-        return -1;
+        return null;
     }
     
     private void setStatus(String mainText, String toolTipText) {
@@ -840,27 +1398,9 @@ public class JewiGui extends javax.swing.JFrame {
     }
     
     private void loadSettingsFromEwi() {
-        String stage = "Requesting configuration from EWI...please wait a moment";
-        setStatus(stage, "working");
-        ShortMessage nrpn1, nrpn2, sysexMode, normalMode;
-        SysexMessage[] requests;
-        try {
-            stage = "Bug in the MIDI message code";
-            nrpn1 = new ShortMessage(0xB0, 0x63, 0x01);
-            nrpn2 = new ShortMessage(0xB0, 0x62, 0x04);
-            sysexMode = new ShortMessage(0xB0, 0x06, 0x20);
-            normalMode = new ShortMessage(0xB0, 0x06, 0x10);
-            requests = new SysexMessage[] {
-                new SysexMessage(new byte[] { (byte)0xF0, (byte)0x47, (byte)0x7f, (byte)0x6d, (byte)0x42, (byte)0, (byte)0, (byte)0xf7 }, 8),
-                new SysexMessage(new byte[] { (byte)0xF0, (byte)0x47, (byte)0x7f, (byte)0x6d, (byte)0x40, (byte)0, (byte)0, (byte)0xf7 }, 8)
-            };
-        } catch (InvalidMidiDataException e) {
-            setStatus(stage, e.toString());
-            return;
-        }
-        int midiIn = getGroupSelectedIndex(midiInGroup);
-        int midiOut = getGroupSelectedIndex(midiOutGroup);
-        if (midiIn < 0 || midiOut < 0) {
+        MidiDevice.Info midiIn = getSelectedDevice(midiInGroup);
+        MidiDevice.Info midiOut = getSelectedDevice(midiOutGroup);
+        if (midiIn == null || midiOut == null) {
             setStatus("MIDI IN and OUT devices must be selected", "");
             notifyError(
                     "<html>Configuration not loaded.</br>"
@@ -869,60 +1409,44 @@ public class JewiGui extends javax.swing.JFrame {
             );
             return;
         }
-        try (
-                MidiDevice input = MidiSystem.getMidiDevice(infos[midi_ins[midiIn]]);
-                MidiDevice output = MidiSystem.getMidiDevice(infos[midi_outs[midiOut]])
-        ) {
-            stage = "Could not open MIDI devices";
-            input.open();
-            stage = "Could not open MIDI OUT device";
-            output.open();
-            Transmitter midi_in = input.getTransmitter();
-            UtilityReceiver ur = new UtilityReceiver(conf);
-            midi_in.setReceiver(ur);
-            Receiver midi_out = output.getReceiver();
-            for (SysexMessage request : requests) {
-                stage = "Error initializing sysex mode on the EWI";
-                midi_out.send(nrpn1, -1);
-                midi_out.send(nrpn2, -1);
-                midi_out.send(sysexMode, -1);
-                midi_out.send(request, -1);
-                stage = "Error reading sysex response from EWI";
-                try {
-                    Thread.sleep(1000);
-                } catch (InterruptedException ex) {
-                    // ignore
+        final MidiDevice.Info inInfo = midiIn;
+        final MidiDevice.Info outInfo = midiOut;
+        midiExecutor.submit(new MidiWorker<Integer>(
+                "Requesting configuration from EWI...please wait a moment") {
+            @Override
+            protected Integer doInBackground() throws Exception {
+                session.select(inInfo, outInfo);
+                stage("Could not open MIDI devices");
+                session.getListener();
+                stage("Could not open MIDI OUT device");
+                session.getOutput();
+                stage("Error reading sysex response from EWI");
+                progress("Waiting for the EWI to reply...");
+                int received = session.readBanks(responseTimeout,
+                        TimeUnit.MILLISECONDS, 2, 0);
+                return Integer.bitCount(received);
+            }
+
+            @Override
+            protected void succeeded(Integer processed) {
+                if (processed == 2) {
+                    // Every bank came from the EWI behind this OUT port, so
+                    // the next save only needs what is edited from here on
+                    lastOutInfo = outInfo;
                 }
+                updateGuiFromConfig();
+                setStatus("Messages processed: " + processed, "");
+                notifySuccess("<html>Configuration loaded from MIDI <br/>" +
+                        processed + " of 2 expected messages received from EWI.");
             }
-            midi_out.send(nrpn1, -1);
-            midi_out.send(nrpn2, -1);
-            midi_out.send(normalMode, -1);
-            int processed = ur.getMessagesProcessed();
-            setStatus("Messages processed: " + processed, "");
-            notifySuccess("<html>Configuration loaded from MIDI <br/>" +
-                    processed + " of 2 expected messages received from EWI.");
-        } catch (MidiUnavailableException ex) {
-            setStatus(stage, ex.toString());
-        }
+        });
     }
     
     private void saveSettingsToEwi() {
-        String stage = "Sending configuration EWI...please wait";
-        setStatus(stage, "working...");
-        ShortMessage nrpn1, nrpn2, sysexMode, normalMode;
-        try {
-            stage = "Bug in the MIDI message code";
-            nrpn1 = new ShortMessage(0xB0, 0x63, 0x01);
-            nrpn2 = new ShortMessage(0xB0, 0x62, 0x04);
-            sysexMode = new ShortMessage(0xB0, 0x06, 0x20);
-            normalMode = new ShortMessage(0xB0, 0x06, 0x10);
-        } catch (InvalidMidiDataException e) {
-            setStatus(stage, e.toString());
-            return;
-        }
-        SysexMessage[] messages = conf.toSysex();
-        int midiOut = getGroupSelectedIndex(midiOutGroup);
-        if (midiOut < 0) {
+        final boolean verify = midi_verify_item.isSelected();
+        MidiDevice.Info midiIn = getSelectedDevice(midiInGroup);
+        MidiDevice.Info midiOut = getSelectedDevice(midiOutGroup);
+        if (midiOut == null) {
             setStatus("MIDI OUT devices must be selected", "");
             notifyError(
                     "<html>Configuration not loaded.</br>"
@@ -931,28 +1455,93 @@ public class JewiGui extends javax.swing.JFrame {
             );
             return;
         }
-        try (MidiDevice output = MidiSystem.getMidiDevice(infos[midi_outs[midiOut]])) {
-            stage = "Error opening MIDI output device";
-            output.open();
-            Receiver midi_out = output.getReceiver();
-            stage = "Error sending MIDI messages to the EWI";
-            for (SysexMessage message : messages) {
-                midi_out.send(nrpn1, -1);
-                midi_out.send(nrpn2, -1);
-                midi_out.send(sysexMode, -1);
-                midi_out.send(message, -1);
-            }
-            midi_out.send(nrpn1, -1);
-            midi_out.send(nrpn2, -1);
-            midi_out.send(normalMode, -1);
-            setStatus("Configuration sent successfully to EWI", "");
-        } catch (MidiUnavailableException ex) {
-            setStatus(stage, ex.toString());
+        if (verify && midiIn == null) {
+            setStatus("MIDI IN devices must be selected", "");
+            notifyError(
+                    "<html>Configuration not sent.</br>"
+                    + "Verifying a write reads it back, so the MIDI IN</br>"
+                    + "device must be selected in the MIDI menu too.</html>"
+            );
+            return;
+        }
+        final MidiDevice.Info inInfo = verify ? midiIn : null;
+        final MidiDevice.Info outInfo = midiOut;
+        if (!outInfo.equals(lastOutInfo)) {
+            // A different device may hold anything, so send everything
+            conf.markDirty();
+            lastOutInfo = outInfo;
+        }
+        Config.Snapshot snapshot = conf.snapshot();
+        final SysexMessage[] messages = snapshot.toDirtySysex();
+        final Config expected = new Config(snapshot);
+        conf.markClean(snapshot);
+        midiExecutor.submit(new MidiWorker<WriteResult>(
+                "Sending configuration EWI...please wait") {
+            @Override
+            protected WriteResult doInBackground() throws Exception {
+                session.select(inInfo, outInfo);
+                stage("Error opening MIDI output device");
+                session.getOutput();
+                if (!verify) {
+                    stage("Error sending MIDI messages to the EWI");
+                    session.writeBanks(messages);
+                    return null;
+                }
+                stage("Could not open MIDI IN device");
+                session.getListener();
+                stage("Error verifying the configuration on the EWI");
+                progress("Sending configuration and reading it back...");
+                return new WriteVerifier(session, responseTimeout,
+                        writeRetries).write(expected, messages);
+            }
+
+            @Override
+            protected void succeeded(WriteResult result) {
+                if (result == null) {
+                    setStatus("Configuration sent successfully to EWI", "");
+                    notifySuccess("Successfully configured EWI device.");
+                } else if (result.isVerified()) {
+                    setStatus("Configuration sent and verified", result.toString());
+                    notifySuccess("<html>Successfully configured EWI device.<br/>"
+                            + result + "</html>");
+                } else {
+                    conf.markDirty();
+                    setStatus("Configuration could not be verified", result.toString());
+                    notifyError("<html>The EWI does not match the configuration sent.<br/>"
+                            + result + "</html>");
+                }
+            }
+
+            @Override
+            protected void failed() {
+                conf.markDirty();
+            }
+        });
+    }
+
+    /**
+     * Writes live edits to the MIDI OUT device chosen when live edit was
+     * turned on.
+     */
+    private class LiveEditSink implements LiveEditSender.Sink {
+        @Override
+        public void send(SysexMessage[] messages, int count) throws Exception {
+            session.select(null, liveOutInfo);
+            session.writeBanks(messages, count);
+        }
+
+        @Override
+        public void failed(Exception ex) {
+            midi_live_item.setSelected(false);
+            if (ex == null) {
+                setStatus("Live edit cancelled", "");
+            } else {
+                setStatus("Live edit stopped: error sending to the EWI",
+                        ex.toString());
+            }
         }
-        notifySuccess("Successfully configured EWI device.");
     }
 
-    
     private void writeSysex() {
         int result = fileChooser.showSaveDialog(this);
         if (result == JFileChooser.APPROVE_OPTION) {
@@ -969,10 +1558,112 @@ public class JewiGui extends javax.swing.JFrame {
         }
     }
     
+    /**
+     * Runs a MIDI operation on the MIDI I/O thread and reports back to the
+     * status bar.  Subclasses call stage() to name the step that will be
+     * blamed if an exception escapes, and progress() to update the status
+     * text while the operation runs.
+     */
+    private abstract class MidiWorker<T> extends SwingWorker<T, String> {
+        MidiWorker(String startText) {
+            setStatus(startText, "working");
+            midi_cancel_item.setEnabled(true);
+        }
+
+        protected void stage(String text) {
+            stage = text;
+        }
+
+        protected void progress(String text) {
+            publish(text);
+        }
+
+        @Override
+        protected void process(List<String> chunks) {
+            if (!isDone()) {
+                setStatus(chunks.get(chunks.size() - 1), "working");
+            }
+        }
+
+        @Override
+        protected final void done() {
+            midi_cancel_item.setEnabled(midiExecutor.isBusy());
+            if (isCancelled()) {
+                setStatus("MIDI operation cancelled", "");
+                failed();
+                return;
+            }
+            try {
+                succeeded(get());
+            } catch (ExecutionException ex) {
+                setStatus(stage, ex.getCause().toString());
+                failed();
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        protected abstract void succeeded(T result);
+
+        /**
+         * Called on the EDT when the operation threw or was cancelled.
+         */
+        protected void failed() {
+        }
+
+        private volatile String stage = "Error communicating with the EWI";
+    }
+
+    @Override
+    public void dispose() {
+        if (!midiExecutor.isShutdown()) {
+            stopRecording();
+            midiExecutor.submit(new FutureTask<Void>(new Runnable() {
+                @Override
+                public void run() {
+                    session.close();
+                }
+            }, null));
+            midiExecutor.shutdown();
+            discovery.stop();
+            session.getMetrics().unregister();
+        }
+        super.dispose();
+    }
+
     private final Config conf;
-    private MidiDevice.Info[] infos = null;
-    private int[] midi_ins = null;
-    private int[] midi_outs = null;
+    private final Map<Parameter, JSlider> sliders =
+            new EnumMap<>(Parameter.class);
+    private final Map<Parameter, JComboBox<String>> combos =
+            new EnumMap<>(Parameter.class);
+    private final MidiExecutor midiExecutor = new MidiExecutor();
+    private final PortMapping portMapping = new PortMapping();
+    private boolean detecting = false;
+    private final DeviceDiscovery discovery = new DeviceDiscovery(
+            new DeviceDiscovery.Listener() {
+        @Override
+        public void devicesChanged(final List<DeviceDiscovery.Device> added,
+                final List<DeviceDiscovery.Device> removed) {
+            SwingUtilities.invokeLater(new Runnable() {
+                @Override
+                public void run() {
+                    JewiGui.this.devicesChanged(added, removed);
+                }
+            });
+        }
+    }, Long.getLong("jewiusb.probeTimeout", 2000));
+    private final EwiSession session;
+    private final LiveEditSender liveEdit;
+    private volatile MidiDevice.Info liveOutInfo = null;
+    private TrafficLog trafficLog = null;
+    private MonitorWindow monitorWindow = null;
+    private LatencyWindow latencyWindow = null;
+    private final long responseTimeout =
+            Long.getLong("jewiusb.responseTimeout", 1000);
+    private final int writeRetries = Integer.getInteger("jewiusb.writeRetries", 2);
+    private final long detectTimeout =
+            Long.getLong("jewiusb.detectTimeout", 500);
+    private MidiDevice.Info lastOutInfo = null;
     private final ButtonGroup midiInGroup;
     private final ButtonGroup midiOutGroup;
     private final JFileChooser fileChooser;
@@ -1012,14 +1703,23 @@ public class JewiGui extends javax.swing.JFrame {
     private javax.swing.JLabel lbl_transpose;
     private javax.swing.JLabel lbl_velocity;
     private javax.swing.JMenuBar menubar;
+    private javax.swing.JMenuItem midi_cancel_item;
     private javax.swing.JComboBox<String> midi_channel_combo;
+    private javax.swing.JMenuItem midi_detect_item;
     private javax.swing.JMenu midi_in_menu;
+    private javax.swing.JMenuItem midi_latency_item;
+    private javax.swing.JCheckBoxMenuItem midi_live_item;
     private javax.swing.JMenu midi_menu;
+    private javax.swing.JMenuItem midi_monitor_item;
+    private javax.swing.JMenuItem midi_morph_item;
     private javax.swing.JMenu midi_out_menu;
     private javax.swing.JMenuItem midi_receive_item;
+    private javax.swing.JCheckBoxMenuItem midi_record_item;
     private javax.swing.JMenuItem midi_refresh_item;
     private javax.swing.JMenuItem midi_send_item;
     private javax.swing.JPopupMenu.Separator midi_separator;
+    private javax.swing.JMenuItem midi_stats_item;
+    private javax.swing.JCheckBoxMenuItem midi_verify_item;
     private javax.swing.JPanel performance_tab;
     private javax.swing.JComboBox<String> pitch_bend_down_combo;
     private javax.swing.JSlider pitch_bend_gain_slider;
@@ -0,0 +1,184 @@
+/*
+ * Copyright (C) 2016 Greg Lyons <greglyons50+github@gmail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package us.voxg.jewiusb;
+
+import java.beans.ConstructorProperties;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counts durations in a fixed set of buckets, so that any number of samples
+ * can be recorded (from any thread, without locking) in constant memory.
+ * Buckets are log-linear: each power of two is split into four, so a
+ * percentile is accurate to within 25%, which is plenty to tell a 2 ms USB
+ * round trip from a 40 ms one.
+ * @author Greg Lyons <greglyons50+github@gmail.com>
+ */
+public class LatencyHistogram {
+    /**
+     * A histogram's figures at one moment, in microseconds.
+     */
+    public static class Summary {
+        @ConstructorProperties({"count", "mean", "p50", "p90", "p99", "max"})
+        public Summary(long count, long mean, long p50, long p90, long p99,
+                long max) {
+            this.count = count;
+            this.mean = mean;
+            this.p50 = p50;
+            this.p90 = p90;
+            this.p99 = p99;
+            this.max = max;
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        public long getMean() {
+            return mean;
+        }
+
+        public long getP50() {
+            return p50;
+        }
+
+        public long getP90() {
+            return p90;
+        }
+
+        public long getP99() {
+            return p99;
+        }
+
+        public long getMax() {
+            return max;
+        }
+
+        @Override
+        public String toString() {
+            if (count == 0) {
+                return "no samples";
+            }
+            return String.format("n=%d mean=%s p50=%s p90=%s p99=%s max=%s",
+                    count, format(mean), format(p50), format(p90), format(p99),
+                    format(max));
+        }
+
+        private static String format(long micros) {
+            if (micros < 1000) {
+                return micros + "us";
+            }
+            return String.format("%.1fms", micros / 1000.0);
+        }
+
+        private final long count;
+        private final long mean;
+        private final long p50;
+        private final long p90;
+        private final long p99;
+        private final long max;
+    }
+
+    /**
+     * Records one sample.
+     * @param nanos the duration, in nanoseconds
+     */
+    public void record(long nanos) {
+        long micros = Math.max(0, nanos / 1000);
+        buckets.incrementAndGet(bucket(micros));
+        total.addAndGet(micros);
+        long m;
+        while (micros > (m = max.get()) && !max.compareAndSet(m, micros)) {
+            // Another thread raised the max first; look again
+        }
+    }
+
+    /**
+     * Returns the histogram's current figures.  Samples recorded while this
+     * runs may or may not be included.
+     * @return the summary
+     */
+    public Summary summary() {
+        long[] counts = new long[BUCKETS];
+        long n = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            counts[i] = buckets.get(i);
+            n += counts[i];
+        }
+        long m = max.get();
+        return new Summary(n, (n == 0) ? 0 : total.get() / n,
+                percentile(counts, n, 0.50, m), percentile(counts, n, 0.90, m),
+                percentile(counts, n, 0.99, m), m);
+    }
+
+    /**
+     * Discards every sample.
+     */
+    public void reset() {
+        for (int i = 0; i < BUCKETS; i++) {
+            buckets.set(i, 0);
+        }
+        total.set(0);
+        max.set(0);
+    }
+
+    /**
+     * Returns the highest value in the bucket holding the given fraction of
+     * the samples, capped at the largest sample seen.
+     */
+    private static long percentile(long[] counts, long n, double fraction,
+            long max) {
+        if (n == 0) {
+            return 0;
+        }
+        long rank = (long)Math.ceil(fraction * n);
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts[i];
+            if (seen >= rank) {
+                return Math.min(lowerBound(i + 1) - 1, max);
+            }
+        }
+        return max;
+    }
+
+    static int bucket(long micros) {
+        if (micros < SUB_BUCKETS) {
+            return (int)micros;
+        }
+        int octave = 63 - Long.numberOfLeadingZeros(micros);
+        int sub = (int)(micros >>> (octave - 2)) & (SUB_BUCKETS - 1);
+        return Math.min((octave - 1) * SUB_BUCKETS + sub, BUCKETS - 1);
+    }
+
+    static long lowerBound(int bucket) {
+        if (bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+        int octave = bucket / SUB_BUCKETS + 1;
+        int sub = bucket % SUB_BUCKETS;
+        return (long)(SUB_BUCKETS + sub) << (octave - 2);
+    }
+
+    private static final int SUB_BUCKETS = 4;
+    // Up to 2^40 us (about 12 days); anything longer lands in the last one
+    private static final int BUCKETS = 40 * SUB_BUCKETS;
+
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+    private final AtomicLong total = new AtomicLong();
+    private final AtomicLong max = new AtomicLong();
+}
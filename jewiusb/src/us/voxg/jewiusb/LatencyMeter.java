@@ -0,0 +1,162 @@
+/*
+ * Copyright (C) 2016 Greg Lyons <greglyons50+github@gmail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package us.voxg.jewiusb;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import javax.sound.midi.InvalidMidiDataException;
+import javax.sound.midi.MidiMessage;
+import javax.sound.midi.Receiver;
+import javax.sound.midi.ShortMessage;
+
+/**
+ * Measures how promptly and evenly MIDI from the EWI-USB reaches the
+ * application, to compare USB ports, hubs, hosts and Key Delay settings.
+ * Attached to MIDI IN, it times three things:
+ * <ul>
+ * <li>loopback: the round trip of probe messages sent with sendProbe() on
+ * a MIDI OUT that is wired (or routed) back to MIDI IN;</li>
+ * <li>delivery jitter: how much later than its best case each message is
+ * handed over, judged by the device timestamp Java Sound gives it;</li>
+ * <li>stream interval: the gap between successive controller messages while
+ * playing, which is steady when nothing in between is struggling.</li>
+ * </ul>
+ * Any thread may call any method.
+ * @author Greg Lyons <greglyons50+github@gmail.com>
+ */
+public class LatencyMeter implements Receiver {
+    @Override
+    public void send(MidiMessage message, long timeStamp) {
+        long now = System.nanoTime();
+        if (!(message instanceof ShortMessage)) {
+            return;
+        }
+        ShortMessage m = (ShortMessage)message;
+        if (m.getStatus() == PROBE_STATUS && m.getData1() == PROBE_CC) {
+            long sent = probes.getAndSet(m.getData2(), 0);
+            if (sent != 0) {
+                loopback.record(now - sent);
+            }
+            return;
+        }
+        if (timeStamp >= 0) {
+            // The device clock and ours differ by an unknown offset, so
+            // measure each delivery against the quickest one seen
+            long offset = now / 1000 - timeStamp;
+            long best;
+            while (offset < (best = bestOffset.get())
+                    && !bestOffset.compareAndSet(best, offset)) {
+                // Another message set a new best first; look again
+            }
+            delivery.record((offset - Math.min(offset, bestOffset.get())) * 1000);
+        }
+        int command = m.getCommand();
+        if (command == ShortMessage.NOTE_ON && m.getData2() > 0) {
+            notes.incrementAndGet();
+        } else if (command == ShortMessage.CONTROL_CHANGE) {
+            long last = lastController.getAndSet(now);
+            if (last != 0 && now - last < MAX_INTERVAL) {
+                interval.record(now - last);
+            }
+        }
+    }
+
+    /**
+     * Does nothing; a meter has no resources to release.
+     */
+    @Override
+    public void close() {
+    }
+
+    /**
+     * Sends a probe for timing the loopback path.  It is a controller
+     * message the EWI-USB never sends (CC 102 on channel 16).
+     * @param out the receiver of the MIDI OUT device looped back to MIDI IN
+     * @throws InvalidMidiDataException if the probe can't be built
+     */
+    public void sendProbe(Receiver out) throws InvalidMidiDataException {
+        int id = nextProbe.getAndIncrement() & 0x7F;
+        ShortMessage probe = new ShortMessage(PROBE_STATUS, PROBE_CC, id);
+        probes.set(id, System.nanoTime());
+        out.send(probe, -1);
+        probesSent.incrementAndGet();
+    }
+
+    public LatencyHistogram.Summary getLoopback() {
+        return loopback.summary();
+    }
+
+    public LatencyHistogram.Summary getDeliveryJitter() {
+        return delivery.summary();
+    }
+
+    public LatencyHistogram.Summary getStreamInterval() {
+        return interval.summary();
+    }
+
+    /**
+     * Describes every measurement.
+     * @return the report, one measurement per line
+     */
+    public String report() {
+        LatencyHistogram.Summary l = getLoopback();
+        long lost = probesSent.get() - l.getCount();
+        StringBuilder sb = new StringBuilder();
+        sb.append("Loopback:         ").append(l);
+        if (probesSent.get() > 0) {
+            sb.append(" (").append(probesSent.get()).append(" sent, ")
+                    .append(Math.max(lost, 0)).append(" not back)");
+        }
+        sb.append('\n');
+        sb.append("Delivery jitter:  ").append(getDeliveryJitter()).append('\n');
+        sb.append("Stream interval:  ").append(getStreamInterval()).append('\n');
+        sb.append("Notes played:     ").append(notes.get()).append('\n');
+        return sb.toString();
+    }
+
+    /**
+     * Discards every measurement.
+     */
+    public void reset() {
+        loopback.reset();
+        delivery.reset();
+        interval.reset();
+        bestOffset.set(Long.MAX_VALUE);
+        lastController.set(0);
+        notes.set(0);
+        probesSent.set(0);
+        for (int i = 0; i < 128; i++) {
+            probes.set(i, 0);
+        }
+    }
+
+    private static final int PROBE_STATUS = ShortMessage.CONTROL_CHANGE | 15;
+    private static final int PROBE_CC = 102;
+    // Longer gaps are pauses in the playing, not jitter
+    private static final long MAX_INTERVAL = 50000000;
+
+    private final LatencyHistogram loopback = new LatencyHistogram();
+    private final LatencyHistogram delivery = new LatencyHistogram();
+    private final LatencyHistogram interval = new LatencyHistogram();
+    private final AtomicLongArray probes = new AtomicLongArray(128);
+    private final AtomicInteger nextProbe = new AtomicInteger();
+    private final AtomicLong probesSent = new AtomicLong();
+    private final AtomicLong bestOffset = new AtomicLong(Long.MAX_VALUE);
+    private final AtomicLong lastController = new AtomicLong();
+    private final AtomicLong notes = new AtomicLong();
+}
@@ -0,0 +1,141 @@
+/*
+ * Copyright (C) 2016 Greg Lyons <greglyons50+github@gmail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package us.voxg.jewiusb;
+
+import java.awt.BorderLayout;
+import java.awt.FlowLayout;
+import java.awt.Font;
+import java.awt.Frame;
+import java.awt.Toolkit;
+import java.awt.datatransfer.StringSelection;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import java.awt.event.WindowAdapter;
+import java.awt.event.WindowEvent;
+import javax.swing.BorderFactory;
+import javax.swing.JButton;
+import javax.swing.JCheckBox;
+import javax.swing.JDialog;
+import javax.swing.JPanel;
+import javax.swing.JTextArea;
+import javax.swing.Timer;
+
+/**
+ * Shows a LatencyMeter's figures as they accumulate, headed by the devices
+ * and Key Delay setting they were taken with, so that runs on different
+ * ports, hubs and settings can be copied out and compared.
+ * @author Greg Lyons <greglyons50+github@gmail.com>
+ */
+public class LatencyWindow extends JDialog {
+    /**
+     * Creates the window; it starts updating when shown.
+     * @param owner the main window
+     * @param m the meter to display
+     * @param c the configuration, for the Key Delay setting
+     * @param devices a description of the devices being measured
+     * @param probe run on the EDT to send one loopback probe, or null if no
+     * MIDI OUT device is available for loopback
+     */
+    public LatencyWindow(Frame owner, LatencyMeter m, Config c,
+            String devices, Runnable probe) {
+        super(owner, "Latency Measurement", false);
+        meter = m;
+        conf = c;
+        header = devices;
+        sendProbe = probe;
+        report.setEditable(false);
+        report.setFont(new Font(Font.MONOSPACED, Font.PLAIN, 12));
+        report.setRows(9);
+        report.setColumns(72);
+        loopback.setEnabled(probe != null);
+        loopback.setToolTipText("Needs the MIDI OUT device wired or routed back to MIDI IN");
+        JButton reset = new JButton("Reset");
+        reset.addActionListener(new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                meter.reset();
+                refresh();
+            }
+        });
+        JButton copy = new JButton("Copy");
+        copy.addActionListener(new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                StringSelection s = new StringSelection(report.getText());
+                Toolkit.getDefaultToolkit().getSystemClipboard().setContents(s, s);
+            }
+        });
+        JPanel buttons = new JPanel(new FlowLayout(FlowLayout.RIGHT, 4, 0));
+        buttons.add(loopback);
+        buttons.add(reset);
+        buttons.add(copy);
+        JPanel panel = new JPanel(new BorderLayout(0, 8));
+        panel.setBorder(BorderFactory.createEmptyBorder(10, 10, 10, 10));
+        panel.add(report, BorderLayout.CENTER);
+        panel.add(buttons, BorderLayout.SOUTH);
+        setContentPane(panel);
+        refresh();
+        pack();
+        setLocationRelativeTo(owner);
+        timer = new Timer(1000 / PROBE_RATE, new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                tick();
+            }
+        });
+        addWindowListener(new WindowAdapter() {
+            @Override
+            public void windowOpened(WindowEvent e) {
+                timer.start();
+            }
+
+            @Override
+            public void windowClosed(WindowEvent e) {
+                timer.stop();
+            }
+        });
+        setDefaultCloseOperation(DISPOSE_ON_CLOSE);
+    }
+
+    private void tick() {
+        if (loopback.isSelected()) {
+            sendProbe.run();
+        }
+        if (++ticks % (PROBE_RATE / REFRESH_RATE) == 0) {
+            refresh();
+        }
+    }
+
+    private void refresh() {
+        report.setText(header + "\nKey Delay: "
+                + conf.snapshot().get(Parameter.KEY_DELAY) + "\n\n"
+                + meter.report());
+    }
+
+    private static final long serialVersionUID = 1L;
+    private static final int PROBE_RATE = 10;
+    private static final int REFRESH_RATE = 2;
+
+    private final LatencyMeter meter;
+    private final Config conf;
+    private final String header;
+    private final Runnable sendProbe;
+    private final Timer timer;
+    private final JTextArea report = new JTextArea();
+    private final JCheckBox loopback = new JCheckBox("Loopback probes");
+    private int ticks = 0;
+}
@@ -0,0 +1,188 @@
+/*
+ * Copyright (C) 2016 Greg Lyons <greglyons50+github@gmail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package us.voxg.jewiusb;
+
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import javax.sound.midi.SysexMessage;
+import javax.swing.SwingUtilities;
+import javax.swing.Timer;
+
+/**
+ * Streams configuration changes to the EWI-USB while the user edits them.
+ * Changes made in quick succession (e.g. while dragging a slider) are
+ * collapsed into at most a fixed number of writes per second, and the last
+ * value is always sent.  All methods must be called on the Swing event
+ * dispatch thread; the writes themselves happen on the MIDI I/O thread.
+ * @author Greg Lyons <greglyons50+github@gmail.com>
+ */
+public class LiveEditSender {
+    /**
+     * Performs the actual writes on behalf of a LiveEditSender.
+     */
+    public interface Sink {
+        /**
+         * Sends the messages to the EWI-USB.  Called on the MIDI I/O thread.
+         * @param messages the bank writes to send
+         * @param count how many of the messages to send
+         * @throws Exception if the messages could not be sent
+         */
+        void send(SysexMessage[] messages, int count) throws Exception;
+
+        /**
+         * Reports a failed or cancelled write.  Called on the EDT.
+         * @param ex the reason, or null if the write was cancelled
+         */
+        void failed(Exception ex);
+    }
+
+    /**
+     * Creates a sender, initially disabled.
+     * @param c the Config being edited
+     * @param executor the executor owning the MIDI devices
+     * @param s the sink that performs the writes
+     */
+    public LiveEditSender(Config c, MidiExecutor executor, Sink s) {
+        conf = c;
+        midiExecutor = executor;
+        sink = s;
+        timer = new Timer(0, new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                flush();
+            }
+        });
+        timer.setRepeats(false);
+        setMaxRate(20);
+        lastSend = System.nanoTime() - interval;
+    }
+
+    /**
+     * Limits how often writes are sent.
+     * @param updatesPerSecond the maximum number of writes per second
+     * @throws IllegalArgumentException if updatesPerSecond is not positive
+     */
+    public void setMaxRate(int updatesPerSecond) {
+        if (updatesPerSecond <= 0)
+            throw new IllegalArgumentException("Rate must be positive");
+        interval = 1000000000L / updatesPerSecond;
+    }
+
+    /**
+     * Turns live editing on or off.  Turning it on sends any pending changes
+     * right away.
+     * @param on true to stream changes to the EWI-USB
+     */
+    public void setEnabled(boolean on) {
+        enabled = on;
+        if (on) {
+            changed();
+        } else {
+            timer.stop();
+        }
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Notes that the Config has been edited.  The change is sent now if the
+     * rate limit allows, otherwise as soon as it does.  Never blocks.
+     */
+    public void changed() {
+        if (!enabled || inFlight || timer.isRunning()) {
+            return;
+        }
+        long wait = lastSend + interval - System.nanoTime();
+        if (wait <= 0) {
+            flush();
+        } else {
+            timer.setInitialDelay((int)Math.max(1, wait / 1000000));
+            timer.restart();
+        }
+    }
+
+    private void flush() {
+        Config.Snapshot snapshot = conf.snapshot();
+        if (!enabled || !snapshot.isDirty()) {
+            return;
+        }
+        // Only one write is ever in flight, so the encoder's messages can be
+        // reused for the next one once this has been sent
+        final int count = encoder.encodeDirty(snapshot);
+        final SysexMessage[] messages = encoder.getMessages();
+        conf.markClean(snapshot);
+        inFlight = true;
+        lastSend = System.nanoTime();
+        midiExecutor.submit(new FutureTask<Void>(new Callable<Void>() {
+            @Override
+            public Void call() throws Exception {
+                sink.send(messages, count);
+                return null;
+            }
+        }) {
+            @Override
+            protected void done() {
+                final FutureTask<Void> task = this;
+                SwingUtilities.invokeLater(new Runnable() {
+                    @Override
+                    public void run() {
+                        sent(task);
+                    }
+                });
+            }
+        });
+    }
+
+    private void sent(FutureTask<Void> task) {
+        inFlight = false;
+        try {
+            task.get();
+        } catch (CancellationException ex) {
+            conf.markDirty();
+            enabled = false;
+            sink.failed(null);
+            return;
+        } catch (ExecutionException ex) {
+            conf.markDirty();
+            enabled = false;
+            Throwable cause = ex.getCause();
+            sink.failed(cause instanceof Exception ? (Exception)cause : ex);
+            return;
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            return;
+        }
+        // Anything edited while the write was on the wire goes next
+        changed();
+    }
+
+    private final Config conf;
+    private final MidiExecutor midiExecutor;
+    private final Sink sink;
+    private final Timer timer;
+    private final SysexEncoder encoder = new SysexEncoder();
+    private long interval;
+    private long lastSend;
+    private boolean enabled = false;
+    private boolean inFlight = false;
+}
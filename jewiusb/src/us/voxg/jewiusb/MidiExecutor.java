@@ -0,0 +1,119 @@
+/*
+ * Copyright (C) 2016 Greg Lyons <greglyons50+github@gmail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package us.voxg.jewiusb;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RunnableFuture;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * A single thread that owns every MIDI device operation, so that slow
+ * devices never hold up the Swing event dispatch thread.  Tasks run one at a
+ * time in the order submitted.  Submitting a SwingWorker lets it report
+ * progress and results back to the GUI as usual.
+ * @author Greg Lyons <greglyons50+github@gmail.com>
+ */
+public class MidiExecutor {
+    /**
+     * Creates the executor and its (lazily started) I/O thread.
+     */
+    public MidiExecutor() {
+        executor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "MIDI I/O");
+                ioThread = t;
+                return t;
+            }
+        });
+    }
+
+    /**
+     * Queues a task to run on the MIDI I/O thread.
+     * @param task the task, typically a SwingWorker
+     * @return the task, for convenience
+     */
+    public synchronized <T extends RunnableFuture<?>> T submit(T task) {
+        prune();
+        tasks.add(task);
+        executor.execute(task);
+        return task;
+    }
+
+    /**
+     * Cancels the running task, interrupting it, along with any queued ones.
+     * @return true if anything was cancelled
+     */
+    public synchronized boolean cancel() {
+        boolean cancelled = false;
+        for (Future<?> f : tasks) {
+            cancelled |= f.cancel(true);
+        }
+        tasks.clear();
+        return cancelled;
+    }
+
+    /**
+     * Tells whether any submitted task has yet to complete.
+     * @return true if a task is running or queued
+     */
+    public synchronized boolean isBusy() {
+        prune();
+        return !tasks.isEmpty();
+    }
+
+    /**
+     * Tells whether the caller is running on the MIDI I/O thread.
+     * @return true if called from the I/O thread
+     */
+    public boolean isIoThread() {
+        return Thread.currentThread() == ioThread;
+    }
+
+    /**
+     * Lets queued tasks finish and then stops the I/O thread.
+     */
+    public void shutdown() {
+        executor.shutdown();
+    }
+
+    /**
+     * Tells whether shutdown() has been called.
+     * @return true if no more tasks will be accepted
+     */
+    public boolean isShutdown() {
+        return executor.isShutdown();
+    }
+
+    private void prune() {
+        Iterator<Future<?>> i = tasks.iterator();
+        while (i.hasNext()) {
+            if (i.next().isDone()) {
+                i.remove();
+            }
+        }
+    }
+
+    private final ExecutorService executor;
+    private final List<Future<?>> tasks = new ArrayList<>();
+    private volatile Thread ioThread;
+}
@@ -0,0 +1,209 @@
+/*
+ * Copyright (C) 2016 Greg Lyons <greglyons50+github@gmail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package us.voxg.jewiusb;
+
+import java.awt.Font;
+import java.awt.Frame;
+import java.awt.GridBagConstraints;
+import java.awt.GridBagLayout;
+import java.awt.Insets;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import java.awt.event.WindowAdapter;
+import java.awt.event.WindowEvent;
+import javax.swing.BorderFactory;
+import javax.swing.JDialog;
+import javax.swing.JLabel;
+import javax.swing.JOptionPane;
+import javax.swing.JPanel;
+import javax.swing.JProgressBar;
+import javax.swing.JTextArea;
+import javax.swing.JToggleButton;
+import javax.swing.Timer;
+
+/**
+ * Shows live meters for what the EWI-USB is playing: breath and bite on the
+ * controllers the Config assigns them, pitch bend, and the current note.
+ * The meters are redrawn at a fixed frame rate from a PerformanceMonitor,
+ * however fast the events arrive.  Calibrate collects statistics while the
+ * player plays a test phrase and then offers gains to match.
+ * @author Greg Lyons <greglyons50+github@gmail.com>
+ */
+public class MonitorWindow extends JDialog {
+    /**
+     * Creates the window; it starts updating when shown.
+     * @param owner the main window
+     * @param m the monitor to display
+     * @param c the configuration, for the breath and bite controllers
+     * @param changed run on the EDT after calibration changes c
+     */
+    public MonitorWindow(Frame owner, PerformanceMonitor m, Config c,
+            Runnable changed) {
+        super(owner, "Performance Monitor", false);
+        monitor = m;
+        conf = c;
+        configChanged = changed;
+        JPanel panel = new JPanel(new GridBagLayout());
+        panel.setBorder(BorderFactory.createEmptyBorder(10, 10, 10, 10));
+        breath = addMeter(panel, 0, "Breath", 0, 127);
+        bite = addMeter(panel, 1, "Bite", 0, 127);
+        bend = addMeter(panel, 2, "Pitch Bend", -8192, 8191);
+        GridBagConstraints gbc = new GridBagConstraints();
+        gbc.gridy = 3;
+        gbc.gridwidth = 2;
+        gbc.anchor = GridBagConstraints.WEST;
+        gbc.insets = new Insets(8, 0, 0, 0);
+        panel.add(note, gbc);
+        gbc.gridy = 4;
+        gbc.insets = new Insets(2, 0, 0, 0);
+        panel.add(dropped, gbc);
+        gbc.gridy = 5;
+        panel.add(calibration, gbc);
+        gbc.gridy = 6;
+        gbc.anchor = GridBagConstraints.EAST;
+        gbc.insets = new Insets(8, 0, 0, 0);
+        calibrate.addActionListener(new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                calibrateToggled();
+            }
+        });
+        panel.add(calibrate, gbc);
+        setContentPane(panel);
+        pack();
+        setLocationRelativeTo(owner);
+        timer = new Timer(1000 / FRAME_RATE, new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                refresh();
+            }
+        });
+        addWindowListener(new WindowAdapter() {
+            @Override
+            public void windowOpened(WindowEvent e) {
+                timer.start();
+            }
+
+            @Override
+            public void windowClosed(WindowEvent e) {
+                timer.stop();
+                monitor.setListener(null);
+            }
+        });
+        setDefaultCloseOperation(DISPOSE_ON_CLOSE);
+    }
+
+    private void calibrateToggled() {
+        if (calibrate.isSelected()) {
+            calibrator = new Calibrator(conf);
+            monitor.update(); // Start from now
+            monitor.setListener(calibrator);
+            return;
+        }
+        monitor.update();
+        monitor.setListener(null);
+        Calibrator.Result result = calibrator.suggest(conf.snapshot());
+        calibrator = null;
+        calibration.setText(" ");
+        JTextArea text = new JTextArea(result.toString());
+        text.setEditable(false);
+        text.setFont(new Font(Font.MONOSPACED, Font.PLAIN, 12));
+        int choice = JOptionPane.showConfirmDialog(this, new Object[] {
+                text, "Apply the suggested gains?" }, "Calibration",
+                JOptionPane.YES_NO_OPTION);
+        if (choice == JOptionPane.YES_OPTION) {
+            result.applyTo(conf);
+            configChanged.run();
+        }
+    }
+
+    private static JProgressBar addMeter(JPanel panel, int row, String label,
+            int min, int max) {
+        GridBagConstraints gbc = new GridBagConstraints();
+        gbc.gridy = row;
+        gbc.anchor = GridBagConstraints.WEST;
+        gbc.insets = new Insets(2, 0, 2, 8);
+        panel.add(new JLabel(label), gbc);
+        JProgressBar bar = new JProgressBar(min, max);
+        bar.setStringPainted(true);
+        gbc.gridx = 1;
+        gbc.fill = GridBagConstraints.HORIZONTAL;
+        gbc.weightx = 1;
+        gbc.insets = new Insets(2, 0, 2, 0);
+        panel.add(bar, gbc);
+        return bar;
+    }
+
+    private void refresh() {
+        monitor.update();
+        Config.Snapshot s = conf.snapshot();
+        show(breath, source(s.get(Parameter.BREATH_CC1)));
+        show(bite, source(s.get(Parameter.BITE_CC1)));
+        int b = monitor.getPitchBend();
+        bend.setValue(b);
+        bend.setString(Integer.toString(b));
+        int n = monitor.getNote();
+        note.setText((n < 0) ? "Note: -"
+                : "Note: " + NOTE_NAMES[n % 12] + (n / 12 - 1)
+                        + "  velocity " + monitor.getVelocity());
+        dropped.setText("Events dropped: " + monitor.getDropped());
+        if (calibrator != null) {
+            calibration.setText("Calibrating: " + calibrator.getBreath().getCount()
+                    + " breath, " + calibrator.getBite().getCount()
+                    + " bite values so far");
+        }
+    }
+
+    /**
+     * Returns the value of what a controller setting sends: a CC number,
+     * 127 for aftertouch, or -1 if it isn't something the monitor tracks.
+     */
+    private int source(int setting) {
+        if (setting > 0 && setting < 120) {
+            return monitor.getController(setting);
+        }
+        if (setting == 127) {
+            return monitor.getPressure();
+        }
+        return -1;
+    }
+
+    private static void show(JProgressBar bar, int value) {
+        bar.setEnabled(value >= 0);
+        bar.setValue(Math.max(value, 0));
+        bar.setString((value >= 0) ? Integer.toString(value) : "n/a");
+    }
+
+    private static final long serialVersionUID = 1L;
+    private static final int FRAME_RATE = 30;
+    private static final String[] NOTE_NAMES = {
+        "C", "C#", "D", "D#", "E", "F", "F#", "G", "G#", "A", "A#", "B"
+    };
+
+    private final PerformanceMonitor monitor;
+    private final Config conf;
+    private final Timer timer;
+    private final JProgressBar breath;
+    private final JProgressBar bite;
+    private final JProgressBar bend;
+    private final JLabel note = new JLabel("Note: -");
+    private final JLabel dropped = new JLabel("Events dropped: 0");
+    private final JLabel calibration = new JLabel(" ");
+    private final JToggleButton calibrate = new JToggleButton("Calibrate");
+    private final Runnable configChanged;
+    private Calibrator calibrator;
+}
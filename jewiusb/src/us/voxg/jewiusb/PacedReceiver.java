@@ -0,0 +1,171 @@
+/*
+ * Copyright (C) 2016 Greg Lyons <greglyons50+github@gmail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package us.voxg.jewiusb;
+
+import java.util.concurrent.locks.LockSupport;
+import javax.sound.midi.MidiMessage;
+import javax.sound.midi.Receiver;
+
+/**
+ * Paces messages to the MIDI OUT device with a token bucket, so that bulk
+ * sysex doesn't overrun USB-MIDI drivers that drop bytes when flooded.  Up to
+ * a burst of bytes goes out at once; beyond that, send() blocks the caller
+ * until the budget allows, which holds back the MIDI I/O thread and with it
+ * everything queued behind it.
+ * <p>
+ * The rate adapts to how the EWI-USB keeps up: each prompt reply nudges it
+ * up towards the maximum, while lost replies and slow ones (compared with
+ * the quickest seen) cut it back.  A pacer belongs to the MIDI I/O thread,
+ * though getRate() may be read from anywhere.
+ * @author Greg Lyons <greglyons50+github@gmail.com>
+ */
+public class PacedReceiver implements Receiver {
+    /**
+     * Creates a pacer starting at a quarter of the maximum rate.
+     * @param target the receiver to forward to
+     * @param maxRate the highest rate to send at, in bytes per millisecond
+     * @param burst the number of bytes that may be sent without waiting
+     * @throws IllegalArgumentException if maxRate or burst is not positive
+     */
+    public PacedReceiver(Receiver target, double maxRate, int burst) {
+        if (burst <= 0)
+            throw new IllegalArgumentException("Burst must be positive");
+        this.target = target;
+        this.burst = burst;
+        setMaxRate(maxRate);
+        rate = Math.max(maxRate / 4, Math.min(MIN_RATE, maxRate));
+        tokens = burst;
+        lastRefill = System.nanoTime();
+    }
+
+    @Override
+    public void send(MidiMessage message, long timeStamp) {
+        long now = System.nanoTime();
+        tokens = Math.min(burst, tokens + (now - lastRefill) * rate / 1e6);
+        lastRefill = now;
+        tokens -= message.getLength();
+        if (tokens < 0) {
+            long wait = (long)(-tokens / rate * 1e6);
+            waited += wait;
+            long until = now + wait;
+            while (!Thread.currentThread().isInterrupted()
+                    && (wait = until - System.nanoTime()) > 0) {
+                LockSupport.parkNanos(wait);
+            }
+            // If interrupted, send at once and let the caller notice
+        }
+        target.send(message, timeStamp);
+    }
+
+    /**
+     * Closes the target.
+     */
+    @Override
+    public void close() {
+        target.close();
+    }
+
+    /**
+     * Changes the receiver messages are forwarded to, keeping the pacing.
+     * @param r the new target
+     */
+    public void setTarget(Receiver r) {
+        target = r;
+    }
+
+    /**
+     * Sets the highest rate the pacer may adapt up to, lowering the current
+     * rate if necessary.
+     * @param bytesPerMilli the rate in bytes per millisecond; 3.125 is the
+     * speed of a 5-pin DIN MIDI cable
+     * @throws IllegalArgumentException if the rate is not positive
+     */
+    public void setMaxRate(double bytesPerMilli) {
+        if (!(bytesPerMilli > 0))
+            throw new IllegalArgumentException("Rate must be positive");
+        maxRate = bytesPerMilli;
+        rate = Math.min(rate, maxRate);
+    }
+
+    public double getMaxRate() {
+        return maxRate;
+    }
+
+    /**
+     * Returns the current sending rate.
+     * @return the rate in bytes per millisecond
+     */
+    public double getRate() {
+        return rate;
+    }
+
+    /**
+     * Returns how long callers have been held back so far.
+     * @return the total wait in nanoseconds
+     */
+    public long getWaitTime() {
+        return waited;
+    }
+
+    /**
+     * Reports a reply from the EWI-USB.  A reply much slower than the
+     * quickest seen lately suggests a backlog, and lowers the rate; otherwise
+     * the rate goes up a step.  The quickest time creeps toward later
+     * replies, so one early outlier doesn't set the bar for the whole
+     * session.  Times that aren't positive are ignored.
+     * @param nanos the time from request to reply
+     */
+    public void responded(long nanos) {
+        if (nanos <= 0) {
+            return;
+        }
+        if (nanos < fastest) {
+            fastest = nanos;
+        } else {
+            fastest += (nanos - fastest) / FASTEST_DECAY;
+        }
+        if (nanos > SLOW_FACTOR * fastest) {
+            rate = Math.max(MIN_RATE, rate * 0.75);
+        } else {
+            rate = Math.min(maxRate, rate + maxRate / INCREASE_STEPS);
+        }
+    }
+
+    /**
+     * Reports a message the EWI-USB evidently didn't get: a reply that never
+     * came, or a write that didn't take.  Halves the rate.
+     */
+    public void lost() {
+        rate = Math.max(MIN_RATE, rate / 2);
+    }
+
+    // Lowest rate to adapt down to, in bytes per millisecond
+    private static final double MIN_RATE = 1;
+    private static final int SLOW_FACTOR = 4;
+    private static final int INCREASE_STEPS = 16;
+    // Fraction of the gap to a slower reply that the quickest time moves by
+    private static final int FASTEST_DECAY = 32;
+
+    private Receiver target;
+    private final int burst;
+    private double maxRate;
+    private volatile double rate;
+    private double tokens;
+    private long lastRefill;
+    private long fastest = Long.MAX_VALUE;
+    private long waited;
+}
@@ -0,0 +1,161 @@
+/*
+ * Copyright (C) 2016 Greg Lyons <greglyons50+github@gmail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package us.voxg.jewiusb;
+
+/**
+ * Describes every configuration parameter of the EWI-USB: where it lives
+ * (MSB/LSB address), what it's called, and which values it accepts.  Config
+ * validates and decodes through this table, and the GUI binds its controls
+ * to it, so a new parameter only needs a new entry here.
+ * @author Greg Lyons <greglyons50+github@gmail.com>
+ */
+public enum Parameter {
+    // Bank 0 ("Setup" section)
+    BREATH_GAIN(0, 0, "Breath Gain", 0, 0x7F),
+    BITE_GAIN(0, 1, "Bite Gain", 0, 0x7F),
+    BITE_AC_GAIN(0, 2, "Bite AC Gain", 0, 0x7F),
+    PITCH_BEND_GAIN(0, 3, "Pitch Bend Gain", 0, 0x7F),
+    KEY_DELAY(0, 4, "Key Delay", 0, 0xF),
+    UNKNOWN(0, 5, "Unknown", 0, 0x7F),
+    // Bank 2 ("Controller" section)
+    MIDI_CHANNEL(2, 0, "MIDI Channel", 0, 15),
+    FINGERING(2, 1, "Fingering", 0, 5),
+    TRANSPOSE(2, 2, "Transpose", 0x22, 0x5D),
+    VELOCITY(2, 3, "Velocity", 0, 0x7F),
+    BREATH_CC1(2, 4, "Breath CC 1", 0, 0x7F, 0x78, 0x7E),
+    BREATH_CC2(2, 5, "Breath CC 2", 0, 0x7F, 0x78, 0x7E),
+    UNKNOWN2(2, 6, "Unknown2", 0, 0x7F),
+    BITE_CC1(2, 7, "Bite CC 1", 0, 0x7F, 0x78, 0x7B),
+    BITE_CC2(2, 8, "Bite CC 2", 0, 0x7F, 0x78, 0x7B),
+    PITCH_BEND_UP(2, 9, "Pitch Bend Up", 0, 0x7F, 0x78, 0x7E),
+    PITCH_BEND_DOWN(2, 10, "Pitch Bend Down", 0, 0x7F, 0x78, 0x7E);
+
+    Parameter(int msb, int lsb, String name, int min, int max) {
+        this(msb, lsb, name, min, max, 1, 0);
+    }
+
+    /**
+     * @param reservedFrom first value with no meaning to the EWI-USB; it is
+     * accepted (devices may send it) but shouldn't be offered to the user
+     * @param reservedTo last such value
+     */
+    Parameter(int msb, int lsb, String name, int min, int max,
+            int reservedFrom, int reservedTo) {
+        this.msb = msb;
+        this.lsb = lsb;
+        this.displayName = name;
+        this.min = min;
+        this.max = max;
+        this.reservedFrom = reservedFrom;
+        this.reservedTo = reservedTo;
+    }
+
+    public int getMsb() {
+        return msb;
+    }
+
+    public int getLsb() {
+        return lsb;
+    }
+
+    public String getDisplayName() {
+        return displayName;
+    }
+
+    public int getMin() {
+        return min;
+    }
+
+    public int getMax() {
+        return max;
+    }
+
+    /**
+     * Tells whether a value is one the EWI-USB accepts but gives no meaning,
+     * so that it shouldn't be offered in the GUI.
+     * @param val the value
+     * @return true if val is reserved
+     */
+    public boolean isReserved(int val) {
+        return val >= reservedFrom && val <= reservedTo;
+    }
+
+    /**
+     * Checks that a value is acceptable for this parameter.
+     * @param val the value
+     * @throws IllegalArgumentException if val is out of range
+     */
+    public void check(int val) {
+        if (val < min || val > max)
+            throw new IllegalArgumentException(displayName + " must be "
+                    + min + "-" + max);
+    }
+
+    /**
+     * Looks up the parameter at an EWI-USB address.
+     * @param msb the address MSB
+     * @param lsb the address LSB
+     * @return the parameter
+     * @throws IllegalArgumentException if there is no parameter there
+     */
+    public static Parameter at(int msb, int lsb) {
+        Parameter[] bank = bank(msb);
+        if (lsb < 0 || lsb >= bank.length)
+            throw new IllegalArgumentException("LSB out of range");
+        return bank[lsb];
+    }
+
+    /**
+     * Returns the parameters of one bank, indexed by LSB.
+     * @param msb the address MSB of the bank
+     * @return the bank's parameters; must not be modified
+     * @throws IllegalArgumentException if there is no such bank
+     */
+    static Parameter[] bank(int msb) {
+        if (msb == 0) return Banks.BANK0;
+        if (msb == 2) return Banks.BANK2;
+        throw new IllegalArgumentException("MSB out of range");
+    }
+
+    /**
+     * Address lookup tables, built once all constants exist.
+     */
+    private static class Banks {
+        static final Parameter[] BANK0 = build(0);
+        static final Parameter[] BANK2 = build(2);
+
+        private static Parameter[] build(int msb) {
+            int length = 0;
+            for (Parameter p : values()) {
+                if (p.msb == msb) length = Math.max(length, p.lsb + 1);
+            }
+            Parameter[] bank = new Parameter[length];
+            for (Parameter p : values()) {
+                if (p.msb == msb) bank[p.lsb] = p;
+            }
+            return bank;
+        }
+    }
+
+    private final int msb;
+    private final int lsb;
+    private final String displayName;
+    private final int min;
+    private final int max;
+    private final int reservedFrom;
+    private final int reservedTo;
+}
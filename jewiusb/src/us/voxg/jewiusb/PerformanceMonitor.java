@@ -0,0 +1,234 @@
+/*
+ * Copyright (C) 2016 Greg Lyons <greglyons50+github@gmail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package us.voxg.jewiusb;
+
+import java.util.Arrays;
+import javax.sound.midi.MidiMessage;
+import javax.sound.midi.Receiver;
+import javax.sound.midi.ShortMessage;
+
+/**
+ * Watches what the EWI-USB plays (notes, controllers, aftertouch and pitch
+ * bend) so that its response can be shown while the player tunes it.  The
+ * MIDI delivery thread only packs each event into a long and puts it in an
+ * EventRing, so it is never blocked or made to allocate; the GUI calls
+ * update() at its own frame rate to catch up and then reads the latest
+ * values.  Events arriving faster than the GUI drains them are dropped
+ * rather than delaying the MIDI stream.
+ * <p>
+ * send() must only be called from one thread (the MIDI IN device's), and
+ * update() and the getters only from another (usually the EDT).
+ * @author Greg Lyons <greglyons50+github@gmail.com>
+ */
+public class PerformanceMonitor implements Receiver {
+    /**
+     * Sees every event the monitor applies, e.g. to gather statistics.
+     */
+    public interface Listener {
+        /**
+         * Called by update() for each event, on the consumer thread.
+         * @param status the MIDI status byte
+         * @param data1 the first data byte
+         * @param data2 the second data byte
+         * @param micros when the event arrived, in microseconds since the
+         * monitor was created; it takes some 12 days to wrap around
+         */
+        void event(int status, int data1, int data2, long micros);
+    }
+
+    /**
+     * Creates a monitor with room for a second or so of dense playing
+     * between updates.
+     */
+    public PerformanceMonitor() {
+        this(4096);
+    }
+
+    /**
+     * Creates a monitor.
+     * @param capacity how many events may be waiting for update()
+     */
+    public PerformanceMonitor(int capacity) {
+        ring = new EventRing(capacity);
+    }
+
+    @Override
+    public void send(MidiMessage message, long timeStamp) {
+        if (!(message instanceof ShortMessage)) {
+            return;
+        }
+        ShortMessage m = (ShortMessage)message;
+        switch (m.getCommand()) {
+            case ShortMessage.NOTE_ON:
+            case ShortMessage.NOTE_OFF:
+            case ShortMessage.CONTROL_CHANGE:
+            case ShortMessage.CHANNEL_PRESSURE:
+            case ShortMessage.PITCH_BEND:
+                ring.offer(pack((System.nanoTime() - start) / 1000,
+                        m.getStatus(), m.getData1(), m.getData2()));
+                break;
+            default:
+                break;
+        }
+    }
+
+    /**
+     * Does nothing; a monitor has no resources to release.
+     */
+    @Override
+    public void close() {
+    }
+
+    /**
+     * Applies the events received since the last call.
+     * @return the number of events applied
+     */
+    public int update() {
+        int total = 0;
+        int n;
+        while ((n = ring.drain(events)) > 0) {
+            for (int i = 0; i < n; i++) {
+                apply(events[i]);
+            }
+            total += n;
+        }
+        return total;
+    }
+
+    /**
+     * Returns the last value of a controller.
+     * @param cc the controller number (0-127)
+     * @return its value (0-127)
+     */
+    public int getController(int cc) {
+        return controllers[cc];
+    }
+
+    /**
+     * Returns the last channel aftertouch value.
+     * @return the pressure (0-127)
+     */
+    public int getPressure() {
+        return pressure;
+    }
+
+    /**
+     * Returns the last pitch bend value.
+     * @return the bend, from -8192 to 8191 (0 is centered)
+     */
+    public int getPitchBend() {
+        return pitchBend;
+    }
+
+    /**
+     * Returns the note most recently started, if it is still sounding.
+     * @return the note number, or -1 if no note is on
+     */
+    public int getNote() {
+        return note;
+    }
+
+    /**
+     * Returns the velocity of the note most recently started.
+     * @return the velocity (1-127)
+     */
+    public int getVelocity() {
+        return velocity;
+    }
+
+    /**
+     * Returns how many events were lost because update() wasn't called
+     * often enough.
+     * @return the number of events dropped
+     */
+    public long getDropped() {
+        return ring.getDropped();
+    }
+
+    /**
+     * Forgets every value seen.
+     */
+    public void clear() {
+        Arrays.fill(controllers, 0);
+        pressure = 0;
+        pitchBend = 0;
+        note = -1;
+        velocity = 0;
+    }
+
+    /**
+     * Sets who else sees each event as update() applies it.
+     * @param l the listener, or null for none
+     */
+    public void setListener(Listener l) {
+        listener = l;
+    }
+
+    private void apply(long e) {
+        int status = (int)(e >>> 16) & 0xFF;
+        int data1 = (int)(e >>> 8) & 0xFF;
+        int data2 = (int)e & 0xFF;
+        switch (status & 0xF0) {
+            case ShortMessage.NOTE_ON:
+                if (data2 > 0) {
+                    note = data1;
+                    velocity = data2;
+                } else if (data1 == note) {
+                    note = -1;
+                }
+                break;
+            case ShortMessage.NOTE_OFF:
+                if (data1 == note) {
+                    note = -1;
+                }
+                break;
+            case ShortMessage.CONTROL_CHANGE:
+                controllers[data1] = data2;
+                break;
+            case ShortMessage.CHANNEL_PRESSURE:
+                pressure = data1;
+                break;
+            case ShortMessage.PITCH_BEND:
+                pitchBend = ((data2 << 7) | data1) - 8192;
+                break;
+            default:
+                break;
+        }
+        if (listener != null) {
+            listener.event(status, data1, data2, e >>> 24);
+        }
+    }
+
+    /**
+     * Packs an event into one long: the time in the top 40 bits, then the
+     * status and data bytes.
+     */
+    private static long pack(long micros, int status, int data1, int data2) {
+        return (micros << 24) | (status << 16) | (data1 << 8) | data2;
+    }
+
+    private final EventRing ring;
+    private final long start = System.nanoTime();
+    // Touched only by the consumer thread
+    private final long[] events = new long[256];
+    private final int[] controllers = new int[128];
+    private int pressure = 0;
+    private int pitchBend = 0;
+    private int note = -1;
+    private int velocity = 0;
+    private Listener listener;
+}
@@ -0,0 +1,92 @@
+/*
+ * Copyright (C) 2016 Greg Lyons <greglyons50+github@gmail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package us.voxg.jewiusb;
+
+import java.util.prefs.Preferences;
+import javax.sound.midi.MidiDevice;
+
+/**
+ * Remembers which MIDI IN and OUT ports the EWI-USB was last used on, so
+ * that the next launch can select them straight away instead of detecting
+ * them again.  Ports are recognised by everything their MidiDevice.Info
+ * says (name, vendor, description and version); if the OS renames a port,
+ * it simply isn't recognised and detection takes over.
+ * @author Greg Lyons <greglyons50+github@gmail.com>
+ */
+public class PortMapping {
+    /**
+     * Creates a mapping kept in the user's preferences for this application.
+     */
+    public PortMapping() {
+        this(Preferences.userNodeForPackage(PortMapping.class).node("ports"));
+    }
+
+    /**
+     * Creates a mapping kept in the given preferences node.
+     * @param node where to keep the mapping
+     */
+    public PortMapping(Preferences node) {
+        prefs = node;
+    }
+
+    /**
+     * Tells whether a port is the remembered MIDI IN.
+     * @param info the port
+     * @return true if it is
+     */
+    public boolean isInput(MidiDevice.Info info) {
+        return key(info).equals(prefs.get(IN, null));
+    }
+
+    /**
+     * Tells whether a port is the remembered MIDI OUT.
+     * @param info the port
+     * @return true if it is
+     */
+    public boolean isOutput(MidiDevice.Info info) {
+        return key(info).equals(prefs.get(OUT, null));
+    }
+
+    /**
+     * Remembers the ports in use.
+     * @param in the MIDI IN port, or null to keep the one remembered
+     * @param out the MIDI OUT port, or null to keep the one remembered
+     */
+    public void save(MidiDevice.Info in, MidiDevice.Info out) {
+        if (in != null) {
+            prefs.put(IN, key(in));
+        }
+        if (out != null) {
+            prefs.put(OUT, key(out));
+        }
+    }
+
+    /**
+     * Describes a port in a form that stays the same between launches.
+     * @param info the port
+     * @return the key
+     */
+    static String key(MidiDevice.Info info) {
+        return info.getName() + '\n' + info.getVendor() + '\n'
+                + info.getDescription() + '\n' + info.getVersion();
+    }
+
+    private static final String IN = "in";
+    private static final String OUT = "out";
+
+    private final Preferences prefs;
+}
@@ -0,0 +1,125 @@
+/*
+ * Copyright (C) 2016 Greg Lyons <greglyons50+github@gmail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package us.voxg.jewiusb;
+
+import javax.sound.midi.InvalidMidiDataException;
+import javax.sound.midi.MidiUnavailableException;
+import javax.sound.midi.SysexMessage;
+
+/**
+ * Glides the EWI-USB from one configuration to another over a set time,
+ * e.g. to ease into a new breath response between songs.  The gains and
+ * Key Delay move in even steps; settings that can't sensibly be in
+ * between (channel, fingering, controller assignments...) change with the
+ * last step.  The steps are timed by a ScheduledSender, so on devices that
+ * honour timestamps the driver rather than the JVM decides when each goes
+ * out.
+ * @author Greg Lyons <greglyons50+github@gmail.com>
+ */
+public class PresetMorph {
+    /**
+     * Creates a morph.
+     * @param from the configuration the EWI-USB holds now
+     * @param to the configuration to end up with
+     * @param durationMillis how long the morph takes
+     * @throws IllegalArgumentException if durationMillis is negative
+     */
+    public PresetMorph(Config.Snapshot from, Config.Snapshot to,
+            long durationMillis) {
+        if (durationMillis < 0)
+            throw new IllegalArgumentException("Duration must not be negative");
+        this.from = from;
+        this.to = to;
+        duration = durationMillis;
+        steps = (int)Math.max(1, Math.min(durationMillis / STEP_MILLIS, MAX_STEPS));
+    }
+
+    public int getSteps() {
+        return steps;
+    }
+
+    /**
+     * Returns the configuration at one step of the morph.
+     * @param step the step, from 0 (from) to getSteps() (to)
+     * @return the configuration
+     * @throws IllegalArgumentException if step is out of range
+     */
+    public Config.Snapshot at(int step) {
+        if (step < 0 || step > steps)
+            throw new IllegalArgumentException("Step out of range");
+        if (step == steps) {
+            return to;
+        }
+        Config.Snapshot s = from;
+        for (Parameter p : MORPHED) {
+            int a = from.get(p);
+            int b = to.get(p);
+            s = s.with(p, a + (int)Math.round((b - a) * (double)step / steps));
+        }
+        return s;
+    }
+
+    /**
+     * Plays the morph to the session's MIDI OUT device, keeping the EWI-USB
+     * in sysex mode throughout, and returns when the last step has been
+     * sent.  Only the parameters that change at each step are written.
+     * Called on the MIDI I/O thread.
+     * @param session the session to send through
+     * @throws InvalidMidiDataException if a message can't be built
+     * @throws MidiUnavailableException if the MIDI OUT device can't be opened
+     * @throws InterruptedException if interrupted; the EWI-USB is still
+     * returned to normal mode
+     */
+    public void play(EwiSession session)
+            throws InvalidMidiDataException, MidiUnavailableException,
+                   InterruptedException {
+        ScheduledSender out = session.schedule();
+        try (SysexTransaction t = new SysexTransaction(out)) {
+            Config c = new Config(from);
+            c.markClean();
+            for (int i = 1; i <= steps; i++) {
+                if (Thread.currentThread().isInterrupted()) {
+                    break;
+                }
+                out.setTime(duration * 1000 * i / steps);
+                Config.Snapshot next = at(i);
+                for (Parameter p : Parameter.values()) {
+                    c.set(p, next.get(p));
+                }
+                // Fresh messages each step, as the driver may still hold the
+                // last ones
+                for (SysexMessage m : c.toDirtySysex()) {
+                    t.send(m);
+                }
+                c.markClean();
+            }
+        }
+        out.await();
+    }
+
+    private static final Parameter[] MORPHED = {
+        Parameter.BREATH_GAIN, Parameter.BITE_GAIN, Parameter.BITE_AC_GAIN,
+        Parameter.PITCH_BEND_GAIN, Parameter.KEY_DELAY
+    };
+    private static final long STEP_MILLIS = 50;
+    private static final long MAX_STEPS = 1000;
+
+    private final Config.Snapshot from;
+    private final Config.Snapshot to;
+    private final long duration;
+    private final int steps;
+}
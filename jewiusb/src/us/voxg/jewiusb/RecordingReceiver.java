@@ -0,0 +1,57 @@
+/*
+ * Copyright (C) 2016 Greg Lyons <greglyons50+github@gmail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package us.voxg.jewiusb;
+
+import javax.sound.midi.MidiMessage;
+import javax.sound.midi.Receiver;
+
+/**
+ * A tap that records every message passing through to another receiver,
+ * e.g. the UtilityReceiver on MIDI IN or the receiver of a MIDI OUT device.
+ * @author Greg Lyons <greglyons50+github@gmail.com>
+ */
+public class RecordingReceiver implements Receiver {
+    /**
+     * Creates a tap.
+     * @param target the receiver to pass messages on to
+     * @param log the log to record them in
+     * @param direction TrafficLog.IN or TrafficLog.OUT
+     */
+    public RecordingReceiver(Receiver target, TrafficLog log, int direction) {
+        this.target = target;
+        this.log = log;
+        this.direction = direction;
+    }
+
+    @Override
+    public void send(MidiMessage message, long timeStamp) {
+        log.record(direction, message);
+        target.send(message, timeStamp);
+    }
+
+    /**
+     * Closes the target receiver.  The log is left open.
+     */
+    @Override
+    public void close() {
+        target.close();
+    }
+
+    private final Receiver target;
+    private final TrafficLog log;
+    private final int direction;
+}
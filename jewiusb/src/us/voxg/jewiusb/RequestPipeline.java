@@ -0,0 +1,142 @@
+/*
+ * Copyright (C) 2016 Greg Lyons <greglyons50+github@gmail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package us.voxg.jewiusb;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import javax.sound.midi.InvalidMidiDataException;
+import javax.sound.midi.Receiver;
+import javax.sound.midi.SysexMessage;
+
+/**
+ * Puts any number of bank requests on the wire back-to-back and then matches
+ * the dumps coming back from the EWI-USB to the outstanding requests by their
+ * address MSB.  A full read therefore costs one round trip rather than one
+ * per bank.
+ * @author Greg Lyons <greglyons50+github@gmail.com>
+ */
+public class RequestPipeline {
+    /**
+     * Creates a pipeline sending requests to out and collecting the replies
+     * through in.  The UtilityReceiver must already be attached to the MIDI
+     * IN device, and the EWI-USB must be in sysex mode (see SysexTransaction)
+     * while the pipeline runs.
+     * @param out the receiver of the MIDI OUT device
+     * @param in the listener attached to the MIDI IN device
+     */
+    public RequestPipeline(Receiver out, UtilityReceiver in) {
+        this.out = out;
+        this.in = in;
+    }
+
+    /**
+     * Sets where round trip times and timeouts are recorded.
+     * @param m the metrics to update, or null not to record
+     */
+    public void setMetrics(EwiMetrics m) {
+        metrics = m;
+    }
+
+    /**
+     * Sets the pacer to tell how promptly the EWI-USB answers, so that it
+     * can adapt its rate.
+     * @param p the pacer the requests go through, or null
+     */
+    public void setPacer(PacedReceiver p) {
+        pacer = p;
+    }
+
+    /**
+     * Queues a request for the bank at the given address MSB.
+     * @param msb the address MSB of the bank (0 or 2)
+     */
+    public void add(int msb) {
+        banks.add(msb);
+    }
+
+    /**
+     * Sends every queued request and waits until all of them have been
+     * answered or the timeout expires.  The timeout covers the whole batch,
+     * not each request.
+     * @param timeout the maximum time to wait for all replies
+     * @param unit the unit of the timeout argument
+     * @return a bit set of the banks that were received (bit n for MSB n)
+     * @throws InvalidMidiDataException if a request can't be built
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public int run(long timeout, TimeUnit unit)
+            throws InvalidMidiDataException, InterruptedException {
+        for (int msb : banks) {
+            in.expectBank(msb);
+        }
+        long[] sentAt = new long[banks.size()];
+        for (int i = 0; i < sentAt.length; i++) {
+            sentAt[i] = System.nanoTime();
+            out.send(request(banks.get(i)), -1);
+        }
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        int received = 0;
+        for (int i = 0; i < sentAt.length; i++) {
+            int msb = banks.get(i);
+            long remaining = deadline - System.nanoTime();
+            if (in.awaitBank(msb, Math.max(remaining, 0),
+                    TimeUnit.NANOSECONDS)) {
+                received |= 1 << msb;
+                // A reply stamped before the request went out is a stale one
+                long rtt = in.getArrivalTime(msb) - sentAt[i];
+                if (rtt > 0) {
+                    if (metrics != null) {
+                        metrics.bankReceived(msb, rtt);
+                    }
+                    if (pacer != null) {
+                        pacer.responded(rtt);
+                    }
+                }
+            } else {
+                if (metrics != null) {
+                    metrics.timedOut();
+                }
+                if (pacer != null) {
+                    pacer.lost();
+                }
+            }
+        }
+        banks.clear();
+        return received;
+    }
+
+    /**
+     * Builds the sysex message asking the EWI-USB to dump a bank.
+     * @param msb the address MSB of the bank
+     * @return the request message
+     * @throws InvalidMidiDataException if msb is not a 7-bit value
+     */
+    public static SysexMessage request(int msb) throws InvalidMidiDataException {
+        byte[] b = {
+            (byte)0xF0, (byte)0x47, (byte)0x7f, (byte)0x6d,
+            (byte)(0x40 | msb), (byte)0, (byte)0, (byte)0xf7
+        };
+        return new SysexMessage(b, b.length);
+    }
+
+    private final Receiver out;
+    private final UtilityReceiver in;
+    private final List<Integer> banks = new ArrayList<>();
+    private EwiMetrics metrics;
+    private PacedReceiver pacer;
+}
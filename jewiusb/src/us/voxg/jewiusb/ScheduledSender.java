@@ -0,0 +1,122 @@
+/*
+ * Copyright (C) 2016 Greg Lyons <greglyons50+github@gmail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package us.voxg.jewiusb;
+
+import java.util.concurrent.locks.LockSupport;
+import javax.sound.midi.MidiMessage;
+import javax.sound.midi.Receiver;
+
+/**
+ * Sends messages at set times in a timed sequence, such as a preset morph.
+ * Each message goes out at the time last given to setTime(), measured from
+ * the start of the sequence.  By default the sender waits on the calling
+ * thread until each message is due.  Given a device clock position, it
+ * instead stamps messages with the matching device time and hands them over
+ * at once, so that the driver times them and a busy JVM can't make them
+ * late.
+ * <p>
+ * Only give a position for a device known to honour timestamps.  The JDK's
+ * own MIDI OUT devices report a position but send everything at once, so a
+ * sequence stamped for them would arrive in one burst.  Like the session it
+ * comes from, a sender belongs to the MIDI I/O thread.
+ * @author Greg Lyons <greglyons50+github@gmail.com>
+ */
+public class ScheduledSender implements Receiver {
+    /**
+     * Starts a sequence shortly after now.
+     * @param target the receiver of the MIDI OUT device
+     * @param position the device's current getMicrosecondPosition() if it
+     * honours timestamps, otherwise -1 to wait for each message instead
+     * @param leadMicros how far ahead of now the sequence starts, to give
+     * the first messages time to reach the driver
+     */
+    public ScheduledSender(Receiver target, long position, long leadMicros) {
+        this.target = target;
+        startNanos = System.nanoTime() + leadMicros * 1000;
+        startPosition = (position < 0) ? -1 : position + leadMicros;
+    }
+
+    /**
+     * Tells whether messages are timed by the device rather than by waiting.
+     * @return true if messages are stamped with device times
+     */
+    public boolean isDeviceTimed() {
+        return startPosition >= 0;
+    }
+
+    /**
+     * Sets when the following messages go out.
+     * @param micros the time from the start of the sequence
+     * @throws IllegalArgumentException if micros is negative
+     */
+    public void setTime(long micros) {
+        if (micros < 0)
+            throw new IllegalArgumentException("Time must not be negative");
+        time = micros;
+    }
+
+    public long getTime() {
+        return time;
+    }
+
+    /**
+     * Sends a message at the current time in the sequence.  The timeStamp
+     * argument is ignored.  If the calling thread is interrupted while
+     * waiting, the message is sent at once and the interrupt left set.
+     */
+    @Override
+    public void send(MidiMessage message, long timeStamp) {
+        if (isDeviceTimed()) {
+            target.send(message, startPosition + time);
+            return;
+        }
+        waitUntil(time);
+        target.send(message, -1);
+    }
+
+    /**
+     * Waits until the current time in the sequence has passed, e.g. for the
+     * driver to finish sending everything stamped so far.
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public void await() throws InterruptedException {
+        waitUntil(time);
+        if (Thread.interrupted())
+            throw new InterruptedException();
+    }
+
+    private void waitUntil(long micros) {
+        long until = startNanos + micros * 1000;
+        long wait;
+        while (!Thread.currentThread().isInterrupted()
+                && (wait = until - System.nanoTime()) > 0) {
+            LockSupport.parkNanos(wait);
+        }
+    }
+
+    /**
+     * Does nothing; the session decides when the device is closed.
+     */
+    @Override
+    public void close() {
+    }
+
+    private final Receiver target;
+    private final long startNanos;
+    private final long startPosition;
+    private long time = 0;
+}
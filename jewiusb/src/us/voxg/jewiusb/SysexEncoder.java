@@ -0,0 +1,124 @@
+/*
+ * Copyright (C) 2016 Greg Lyons <greglyons50+github@gmail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package us.voxg.jewiusb;
+
+import javax.sound.midi.InvalidMidiDataException;
+import javax.sound.midi.SysexMessage;
+
+/**
+ * Turns a Config into sysex without creating garbage, for paths that encode
+ * often (live edit, bulk export).  The encoder keeps pre-framed message
+ * templates and SysexMessage objects and patches only the address and
+ * parameter bytes on each call, so the messages returned are overwritten by
+ * the next call.  An encoder must not be shared between threads.
+ * @author Greg Lyons <greglyons50+github@gmail.com>
+ */
+public class SysexEncoder {
+    /**
+     * Creates an encoder with its templates.
+     */
+    public SysexEncoder() {
+        int count = Config.BANK0_LENGTH + Config.BANK2_LENGTH;
+        frames = new byte[count][];
+        messages = new SysexMessage[count];
+        for (int i = 0; i < count; i++) {
+            frames[i] = new byte[Config.BANK2_LENGTH + Config.SYSEX_OVERHEAD];
+            frames[i][0] = (byte)0xf0;
+            frames[i][1] = (byte)0x47;
+            frames[i][2] = (byte)0x7f;
+            frames[i][3] = (byte)0x6d;
+            messages[i] = new SysexMessage();
+        }
+        full = new SysexMessage[] { messages[0], messages[1] };
+    }
+
+    /**
+     * Encodes the complete configuration, like Config.toSysex().
+     * @param c the configuration
+     * @return the two bank writes, valid until the next call
+     */
+    public SysexMessage[] encode(Config c) {
+        return encode(c.snapshot());
+    }
+
+    /**
+     * Encodes the complete configuration held in a snapshot.
+     * @param s the snapshot
+     * @return the two bank writes, valid until the next call
+     */
+    public SysexMessage[] encode(Config.Snapshot s) {
+        patch(0, s, 0, 0, Config.BANK0_LENGTH);
+        patch(1, s, 2, 0, Config.BANK2_LENGTH);
+        return full;
+    }
+
+    /**
+     * Encodes the parameters changed since the last Config.markClean(),
+     * like Config.toDirtySysex().  The messages are left at the start of
+     * getMessages().
+     * @param c the configuration
+     * @return the number of messages encoded
+     */
+    public int encodeDirty(Config c) {
+        return encodeDirty(c.snapshot());
+    }
+
+    /**
+     * Encodes the parameters marked as changed in a snapshot.  Pass the same
+     * snapshot to Config.markClean(Config.Snapshot) once they have been sent.
+     * @param s the snapshot
+     * @return the number of messages encoded
+     */
+    public int encodeDirty(Config.Snapshot s) {
+        int count = 0;
+        for (int msb = 0; msb <= 2; msb += 2) {
+            int n = s.dirtyRuns(msb, runs);
+            for (int i = 0; i < n; i++) {
+                patch(count++, s, msb, runs[2*i], runs[2*i + 1]);
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Returns the messages filled in by encodeDirty().
+     * @return the encoder's messages, valid until the next call
+     */
+    public SysexMessage[] getMessages() {
+        return messages;
+    }
+
+    private void patch(int i, Config.Snapshot s, int msb, int lsb, int length) {
+        byte[] frame = frames[i];
+        frame[4] = (byte)msb;
+        frame[5] = (byte)lsb;
+        frame[6] = (byte)length;
+        s.copyRange(msb, lsb, length, frame, 7);
+        frame[7 + length] = (byte)0xf7;
+        try {
+            // Copies into the message's existing array when it is big enough
+            messages[i].setMessage(frame, length + Config.SYSEX_OVERHEAD);
+        } catch (InvalidMidiDataException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private final byte[][] frames;
+    private final SysexMessage[] messages;
+    private final SysexMessage[] full;
+    private final int[] runs = new int[2 * Config.BANK2_LENGTH];
+}
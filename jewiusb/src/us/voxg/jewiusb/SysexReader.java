@@ -0,0 +1,122 @@
+/*
+ * Copyright (C) 2016 Greg Lyons <greglyons50+github@gmail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package us.voxg.jewiusb;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+
+/**
+ * Reads EWI-USB settings out of a raw sysex (.syx) stream of any size using
+ * a fixed amount of memory.  Messages are framed F0...F7 across buffer
+ * boundaries; messages for other manufacturers are skipped without being
+ * copied, and reading stops as soon as every EWI-USB bank has been seen.
+ * @author Greg Lyons <greglyons50+github@gmail.com>
+ */
+public class SysexReader {
+    /**
+     * Creates a reader with the default buffer size.
+     * @param ch the stream to read
+     */
+    public SysexReader(ReadableByteChannel ch) {
+        this(ch, 8192);
+    }
+
+    /**
+     * Creates a reader.
+     * @param ch the stream to read
+     * @param bufferSize the number of bytes to read from ch at a time
+     */
+    public SysexReader(ReadableByteChannel ch, int bufferSize) {
+        channel = ch;
+        buffer = ByteBuffer.allocate(bufferSize);
+    }
+
+    /**
+     * Applies the EWI-USB messages in the stream to a Config, stopping after
+     * the last bank has been seen or at the end of the stream.  EWI-USB
+     * messages with invalid data will result in an IllegalArgumentException.
+     * @param c the Config to update
+     * @return a bit set of the banks found (bit n for MSB n)
+     * @throws IOException if the stream can't be read
+     */
+    public int read(Config c) throws IOException {
+        int banks = 0;
+        int state = IDLE;
+        int length = 0;
+        buffer.clear();
+        while (channel.read(buffer) >= 0) {
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                int b = buffer.get() & 0xFF;
+                if (b >= 0xF8) {
+                    continue; // real-time bytes may appear anywhere
+                }
+                if (b == 0xF0) {
+                    message[0] = (byte)b;
+                    length = 1;
+                    state = HEADER;
+                    continue;
+                }
+                switch (state) {
+                    case HEADER:
+                        if (b == 0x47) {
+                            message[length++] = (byte)b;
+                            state = EWI;
+                        } else {
+                            state = (b < 0x80) ? SKIP : IDLE;
+                        }
+                        break;
+                    case EWI:
+                        if (b == 0xF7) {
+                            message[length++] = (byte)b;
+                            banks |= c.fromSysex(message, 0, length);
+                            if ((banks & ALL_BANKS) == ALL_BANKS) {
+                                return banks;
+                            }
+                            state = IDLE;
+                        } else if (b >= 0x80 || length == message.length - 1) {
+                            // Interrupted, or too long to be an EWI-USB bank
+                            state = (b >= 0x80) ? IDLE : SKIP;
+                        } else {
+                            message[length++] = (byte)b;
+                        }
+                        break;
+                    case SKIP:
+                        if (b >= 0x80) {
+                            state = IDLE;
+                        }
+                        break;
+                    default:
+                        break;
+                }
+            }
+            buffer.clear();
+        }
+        return banks;
+    }
+
+    private static final int IDLE = 0;
+    private static final int HEADER = 1;
+    private static final int EWI = 2;
+    private static final int SKIP = 3;
+    private static final int ALL_BANKS = (1 << 0) | (1 << 2);
+
+    private final ReadableByteChannel channel;
+    private final ByteBuffer buffer;
+    private final byte[] message = new byte[64];
+}
@@ -0,0 +1,109 @@
+/*
+ * Copyright (C) 2016 Greg Lyons <greglyons50+github@gmail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package us.voxg.jewiusb;
+
+import javax.sound.midi.InvalidMidiDataException;
+import javax.sound.midi.MidiMessage;
+import javax.sound.midi.Receiver;
+import javax.sound.midi.ShortMessage;
+
+/**
+ * Keeps the EWI-USB in sysex mode for a batch of bank writes and requests,
+ * so that the NRPN mode switch goes on the wire once per batch rather than
+ * once per message.  Use it in a try-with-resources statement: closing it
+ * always returns the EWI-USB to normal mode, even when the batch fails part
+ * way through.
+ * <p>
+ * Transactions nest: begin() on an open transaction just adds a level, and
+ * the EWI-USB leaves sysex mode when the outermost level is closed.  Like
+ * the session it comes from, a transaction belongs to the MIDI I/O thread.
+ * @author Greg Lyons <greglyons50+github@gmail.com>
+ */
+public class SysexTransaction implements AutoCloseable {
+    /**
+     * Puts the EWI-USB into sysex mode.
+     * @param out the receiver of the MIDI OUT device
+     * @throws InvalidMidiDataException if the mode switch can't be built
+     */
+    public SysexTransaction(Receiver out) throws InvalidMidiDataException {
+        this.out = out;
+        setMode(SYSEX_MODE);
+        depth = 1;
+    }
+
+    /**
+     * Adds a level to an open transaction.
+     * @return this transaction, to be closed once more
+     * @throws IllegalStateException if the transaction has been closed
+     */
+    public SysexTransaction begin() {
+        if (depth == 0)
+            throw new IllegalStateException("Transaction is closed");
+        depth++;
+        return this;
+    }
+
+    public boolean isOpen() {
+        return depth > 0;
+    }
+
+    /**
+     * Sends a message while the EWI-USB is in sysex mode.
+     * @param m the message, e.g. a bank write or request
+     * @throws IllegalStateException if the transaction has been closed
+     */
+    public void send(MidiMessage m) {
+        if (depth == 0)
+            throw new IllegalStateException("Transaction is closed");
+        out.send(m, -1);
+    }
+
+    /**
+     * Returns the receiver messages in this transaction go to, for code such
+     * as RequestPipeline that sends on its own.  It is only valid while the
+     * transaction is open.
+     * @return the MIDI OUT receiver
+     */
+    public Receiver getReceiver() {
+        return out;
+    }
+
+    /**
+     * Closes one level, returning the EWI-USB to normal mode if it was the
+     * last.  Closing a closed transaction does nothing.
+     * @throws InvalidMidiDataException if the mode switch can't be built
+     */
+    @Override
+    public void close() throws InvalidMidiDataException {
+        if (depth == 0 || --depth > 0) {
+            return;
+        }
+        setMode(NORMAL_MODE);
+    }
+
+    private void setMode(int mode) throws InvalidMidiDataException {
+        out.send(new ShortMessage(0xB0, 0x63, 0x01), -1);
+        out.send(new ShortMessage(0xB0, 0x62, 0x04), -1);
+        out.send(new ShortMessage(0xB0, 0x06, mode), -1);
+    }
+
+    private static final int SYSEX_MODE = 0x20;
+    private static final int NORMAL_MODE = 0x10;
+
+    private final Receiver out;
+    private int depth;
+}
@@ -0,0 +1,176 @@
+/*
+ * Copyright (C) 2016 Greg Lyons <greglyons50+github@gmail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package us.voxg.jewiusb;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import javax.sound.midi.MidiMessage;
+import javax.sound.midi.ShortMessage;
+
+/**
+ * Records MIDI traffic to a compact binary file, cheaply enough to be left
+ * on during a performance.  Records are appended to a memory-mapped window
+ * of the file, so recording a message is a few stores into memory with no
+ * system call; the operating system writes the pages out in the background.
+ * <p>
+ * The file starts with a header: the magic number 0x4557494C ("EWIL"), the
+ * format version (an int) and the wall-clock time recording started (a long,
+ * in milliseconds since the epoch).  Each record that follows is the time
+ * since recording started (a long, in nanoseconds), the direction (a byte,
+ * IN or OUT), the message length (an int) and the message bytes, all
+ * big-endian.  A record length of zero marks the end of the log, in case
+ * the file could not be trimmed when it was closed.
+ * <p>
+ * A log may be written from several threads at once.  If the file can't be
+ * extended, recording stops and getError() says why; the MIDI traffic
+ * itself is never held up.
+ * @author Greg Lyons <greglyons50+github@gmail.com>
+ */
+public class TrafficLog implements AutoCloseable {
+    /**
+     * Creates (or replaces) a log file and starts recording.
+     * @param f the file to record to
+     * @throws IOException if the file can't be created
+     */
+    public TrafficLog(File f) throws IOException {
+        channel = FileChannel.open(f.toPath(), StandardOpenOption.READ,
+                StandardOpenOption.WRITE, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+        start = System.nanoTime();
+        try {
+            map(0, WINDOW_SIZE);
+        } catch (IOException ex) {
+            channel.close();
+            throw ex;
+        }
+        buffer.putInt(MAGIC).putInt(VERSION).putLong(System.currentTimeMillis());
+    }
+
+    /**
+     * Appends a message to the log.  Does nothing once the log is closed.
+     * @param direction IN for a message from the EWI-USB, OUT for one sent
+     * to it
+     * @param message the message
+     */
+    public synchronized void record(int direction, MidiMessage message) {
+        if (buffer == null) {
+            return;
+        }
+        long time = System.nanoTime() - start;
+        int length = message.getLength();
+        if (buffer.remaining() < RECORD_OVERHEAD + length) {
+            try {
+                map(mappedAt + buffer.position(),
+                        Math.max(WINDOW_SIZE, RECORD_OVERHEAD + length));
+            } catch (IOException ex) {
+                error = ex;
+                closeQuietly();
+                return;
+            }
+        }
+        buffer.putLong(time).put((byte)direction).putInt(length);
+        if (message instanceof ShortMessage) {
+            // Avoid the copy that getMessage() makes
+            ShortMessage m = (ShortMessage)message;
+            buffer.put((byte)m.getStatus());
+            if (length > 1) buffer.put((byte)m.getData1());
+            if (length > 2) buffer.put((byte)m.getData2());
+        } else {
+            buffer.put(message.getMessage(), 0, length);
+        }
+        records++;
+    }
+
+    /**
+     * Returns the number of messages recorded so far.
+     * @return the number of records
+     */
+    public synchronized long getRecordCount() {
+        return records;
+    }
+
+    /**
+     * Tells why recording stopped early, if it did.
+     * @return the error, or null if none has happened
+     */
+    public synchronized IOException getError() {
+        return error;
+    }
+
+    /**
+     * Stops recording and trims the file to the records written.
+     * @throws IOException if the file can't be written
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        if (buffer == null) {
+            return;
+        }
+        long end = mappedAt + buffer.position();
+        buffer.force();
+        buffer = null;
+        try {
+            // May fail while the mapping is alive (e.g. on Windows); the end
+            // marker covers that
+            channel.truncate(end);
+        } catch (IOException ex) {
+            // Leave the zero-filled tail
+        } finally {
+            channel.close();
+        }
+    }
+
+    private void map(long position, int size) throws IOException {
+        buffer = channel.map(FileChannel.MapMode.READ_WRITE, position, size);
+        mappedAt = position;
+    }
+
+    private void closeQuietly() {
+        buffer = null;
+        try {
+            channel.close();
+        } catch (IOException ex) {
+            // Already failing
+        }
+    }
+
+    /** Direction of a message received from the EWI-USB. */
+    public static final int IN = 0;
+    /** Direction of a message sent to the EWI-USB. */
+    public static final int OUT = 1;
+    /** First int of every log file. */
+    public static final int MAGIC = 0x4557494C;
+    /** Format version written in the header. */
+    public static final int VERSION = 1;
+    /** Bytes in the file header. */
+    public static final int HEADER_LENGTH = 16;
+    /** Bytes in a record besides the message itself. */
+    public static final int RECORD_OVERHEAD = 13;
+
+    // How much of the file is mapped at a time
+    private static final int WINDOW_SIZE = 1 << 20;
+
+    private final FileChannel channel;
+    private final long start;
+    private MappedByteBuffer buffer;
+    private long mappedAt;
+    private long records = 0;
+    private IOException error;
+}
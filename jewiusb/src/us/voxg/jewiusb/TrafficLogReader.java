@@ -0,0 +1,167 @@
+/*
+ * Copyright (C) 2016 Greg Lyons <greglyons50+github@gmail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package us.voxg.jewiusb;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import javax.sound.midi.InvalidMidiDataException;
+import javax.sound.midi.MidiMessage;
+import javax.sound.midi.ShortMessage;
+import javax.sound.midi.SysexMessage;
+
+/**
+ * Reads back a log written by TrafficLog, one record at a time, using a
+ * fixed-size buffer however long the log is.
+ * @author Greg Lyons <greglyons50+github@gmail.com>
+ */
+public class TrafficLogReader implements AutoCloseable {
+    /**
+     * Opens a log and reads its header.
+     * @param f the log file
+     * @throws IOException if the file can't be read or isn't a traffic log
+     */
+    public TrafficLogReader(File f) throws IOException {
+        channel = FileChannel.open(f.toPath(), StandardOpenOption.READ);
+        try {
+            buffer.flip();
+            if (!fill(TrafficLog.HEADER_LENGTH)
+                    || buffer.getInt() != TrafficLog.MAGIC)
+                throw new IOException("Not a MIDI traffic log");
+            int version = buffer.getInt();
+            if (version != TrafficLog.VERSION)
+                throw new IOException("Unsupported traffic log version " + version);
+            startTime = buffer.getLong();
+        } catch (IOException ex) {
+            channel.close();
+            throw ex;
+        }
+    }
+
+    /**
+     * Returns the wall-clock time the recording started.
+     * @return milliseconds since the epoch
+     */
+    public long getStartTime() {
+        return startTime;
+    }
+
+    /**
+     * Moves to the next record.
+     * @return false at the end of the log
+     * @throws IOException if the file can't be read or a record is corrupt
+     */
+    public boolean next() throws IOException {
+        if (!fill(TrafficLog.RECORD_OVERHEAD)) {
+            return false;
+        }
+        time = buffer.getLong();
+        direction = buffer.get();
+        int length = buffer.getInt();
+        if (length == 0) {
+            return false; // end marker of an untrimmed log
+        }
+        if (length < 0 || !fill(length))
+            throw new EOFException("Truncated traffic log record");
+        byte[] data = new byte[length];
+        buffer.get(data);
+        try {
+            message = toMessage(data);
+        } catch (InvalidMidiDataException ex) {
+            throw new IOException("Corrupt traffic log record", ex);
+        }
+        return true;
+    }
+
+    /**
+     * Returns when the current record was made.
+     * @return nanoseconds since the recording started
+     */
+    public long getTime() {
+        return time;
+    }
+
+    /**
+     * Returns which way the current message went.
+     * @return TrafficLog.IN or TrafficLog.OUT
+     */
+    public int getDirection() {
+        return direction;
+    }
+
+    /**
+     * Returns the current message.
+     * @return a new message for each record
+     */
+    public MidiMessage getMessage() {
+        return message;
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    private static MidiMessage toMessage(byte[] data)
+            throws InvalidMidiDataException {
+        int status = data[0] & 0xFF;
+        if (status == SysexMessage.SYSTEM_EXCLUSIVE
+                || status == SysexMessage.SPECIAL_SYSTEM_EXCLUSIVE) {
+            return new SysexMessage(data, data.length);
+        }
+        ShortMessage m = new ShortMessage();
+        m.setMessage(status, (data.length > 1) ? data[1] & 0xFF : 0,
+                (data.length > 2) ? data[2] & 0xFF : 0);
+        return m;
+    }
+
+    /**
+     * Makes at least n bytes available in the buffer, reading more from the
+     * file as needed.
+     * @return false if the file ends first
+     */
+    private boolean fill(int n) throws IOException {
+        if (buffer.remaining() >= n) {
+            return true;
+        }
+        if (buffer.capacity() < n) {
+            ByteBuffer bigger = ByteBuffer.allocate(n);
+            bigger.put(buffer);
+            buffer = bigger;
+        } else {
+            buffer.compact();
+        }
+        while (buffer.position() < n) {
+            if (channel.read(buffer) < 0) {
+                buffer.flip();
+                return false;
+            }
+        }
+        buffer.flip();
+        return true;
+    }
+
+    private final FileChannel channel;
+    private ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+    private final long startTime;
+    private long time;
+    private int direction;
+    private MidiMessage message;
+}
@@ -0,0 +1,161 @@
+/*
+ * Copyright (C) 2016 Greg Lyons <greglyons50+github@gmail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package us.voxg.jewiusb;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.locks.LockSupport;
+import javax.sound.midi.Receiver;
+
+/**
+ * Plays a recorded traffic log into a receiver: a UtilityReceiver to feed
+ * a Config what the EWI-USB once sent, an EmulatedEwi to repeat what the
+ * application once sent, or anything else.  Messages go out at their
+ * recorded spacing, scaled by a speed factor, or as fast as the receiver
+ * takes them.  Waits are timed with System.nanoTime(): the engine parks
+ * until shortly before each message is due and spins for the rest, so
+ * messages are typically sent within a few microseconds of time.
+ * @author Greg Lyons <greglyons50+github@gmail.com>
+ */
+public class TrafficReplayer {
+    /**
+     * Creates a replayer.
+     * @param reader the log to play
+     * @param target where to send the messages
+     */
+    public TrafficReplayer(TrafficLogReader reader, Receiver target) {
+        this.reader = reader;
+        this.target = target;
+    }
+
+    /**
+     * Sets how fast to play.
+     * @param factor 1 for the original timing, 2 for twice as fast and so
+     * on, or 0 not to wait between messages at all
+     * @throws IllegalArgumentException if factor is negative
+     */
+    public void setSpeed(double factor) {
+        if (factor < 0)
+            throw new IllegalArgumentException("Speed must not be negative");
+        speed = factor;
+    }
+
+    /**
+     * Chooses which messages to play.
+     * @param direction TrafficLog.IN or TrafficLog.OUT for just those
+     * messages, or ALL for both
+     */
+    public void setDirection(int direction) {
+        this.direction = direction;
+    }
+
+    /**
+     * Plays the rest of the log.  Blocks until done.
+     * @return the number of messages sent
+     * @throws IOException if the log can't be read
+     * @throws InterruptedException if interrupted while playing
+     */
+    public long run() throws IOException, InterruptedException {
+        long sent = 0;
+        long base = 0;
+        long first = 0;
+        while (reader.next()) {
+            if (direction != ALL && reader.getDirection() != direction) {
+                continue;
+            }
+            if (speed > 0) {
+                if (sent == 0) {
+                    base = System.nanoTime();
+                    first = reader.getTime();
+                }
+                long due = base + (long)((reader.getTime() - first) / speed);
+                waitUntil(due);
+                maxLateness = Math.max(maxLateness, System.nanoTime() - due);
+            } else if (Thread.interrupted()) {
+                throw new InterruptedException();
+            }
+            target.send(reader.getMessage(), -1);
+            sent++;
+        }
+        return sent;
+    }
+
+    /**
+     * Tells how far behind schedule the worst message was sent, as a check
+     * on the timing of a run.
+     * @return the lateness, in nanoseconds
+     */
+    public long getMaxLateness() {
+        return maxLateness;
+    }
+
+    private static void waitUntil(long due) throws InterruptedException {
+        while (true) {
+            if (Thread.interrupted()) {
+                throw new InterruptedException();
+            }
+            long remaining = due - System.nanoTime();
+            if (remaining <= 0) {
+                return;
+            }
+            if (remaining > SPIN_NANOS) {
+                LockSupport.parkNanos(remaining - SPIN_NANOS);
+            } else {
+                Thread.yield();
+            }
+        }
+    }
+
+    /**
+     * Plays the EWI-USB's side of a log into a Config, as a quick load test
+     * of the decode path.
+     * @param args the log file, then optionally the speed (default 0, as
+     * fast as possible)
+     * @throws Exception if the log can't be played
+     */
+    public static void main(String[] args) throws Exception {
+        if (args.length < 1) {
+            System.err.println("Usage: TrafficReplayer log-file [speed]");
+            System.exit(2);
+        }
+        Config c = new Config();
+        UtilityReceiver r = new UtilityReceiver(c);
+        try (TrafficLogReader reader = new TrafficLogReader(new File(args[0]))) {
+            TrafficReplayer replayer = new TrafficReplayer(reader, r);
+            replayer.setDirection(TrafficLog.IN);
+            replayer.setSpeed((args.length > 1) ? Double.parseDouble(args[1]) : 0);
+            long start = System.nanoTime();
+            long n = replayer.run();
+            double seconds = (System.nanoTime() - start) / 1e9;
+            System.out.printf("%d messages in %.3f s (%.0f/s), %d applied, "
+                    + "max lateness %d us%n", n, seconds, n / seconds,
+                    r.getMessagesProcessed(), replayer.getMaxLateness() / 1000);
+        }
+    }
+
+    /** Direction that plays both sides of the log. */
+    public static final int ALL = -1;
+
+    // Below this, spinning is more accurate than parking
+    private static final long SPIN_NANOS = 1000000;
+
+    private final TrafficLogReader reader;
+    private final Receiver target;
+    private double speed = 1;
+    private int direction = ALL;
+    private long maxLateness = 0;
+}
@@ -16,7 +16,12 @@
  */
 package us.voxg.jewiusb;
 
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 import javax.sound.midi.MidiMessage;
+import javax.sound.midi.Receiver;
 import javax.sound.midi.SysexMessage;
 
 /**
@@ -25,9 +30,9 @@ import javax.sound.midi.SysexMessage;
  * @author Greg Lyons <greglyons50+github@gmail.com>
  */
 public class UtilityReceiver implements javax.sound.midi.Receiver {
-    Config conf;
+    volatile Config conf;
     boolean ignore = false;
-    int messagesProcessed = 0;
+    volatile int messagesProcessed = 0;
 
     /**
      * Creates the listener, updating the Config provided.
@@ -37,6 +42,27 @@ public class UtilityReceiver implements javax.sound.midi.Receiver {
         conf = c;
     }
 
+    /**
+     * Changes the Config that received dumps are applied to, e.g. to read
+     * the EWI-USB's settings without disturbing the ones being edited.
+     * @param c the Config to update from now on
+     */
+    public void setConfig(Config c) {
+        conf = c;
+    }
+
+    public Config getConfig() {
+        return conf;
+    }
+
+    /**
+     * Sets where traffic from the EWI-USB is counted.
+     * @param m the metrics to update
+     */
+    public void setMetrics(EwiMetrics m) {
+        metrics = m;
+    }
+
     @Override
     public void send(MidiMessage message, long timeStamp) {
         if (ignore) return;
@@ -46,8 +72,88 @@ public class UtilityReceiver implements javax.sound.midi.Receiver {
             //    System.out.print(String.format("%02X ", b));
             //}
             //System.out.println();
-            conf.fromSysex(new SysexMessage[] { m });
+            Config c = conf;
+            // getMessage() is the one copy Java Sound forces on us
+            byte[] b = m.getMessage();
+            metrics.messageReceived(b.length);
+            int banks = c.fromDump(b, 0, b.length);
             messagesProcessed++;
+            bankReceived(banks);
+        } else {
+            Receiver r = passThrough;
+            if (r != null) {
+                r.send(message, timeStamp);
+            }
+        }
+    }
+
+    /**
+     * Passes everything that isn't sysex (notes, controllers, etc.) on to
+     * another receiver, e.g. a PerformanceMonitor.
+     * @param r the receiver, or null to ignore such messages
+     */
+    public void setPassThrough(Receiver r) {
+        passThrough = r;
+    }
+
+    /**
+     * Registers interest in a bank dump from the EWI-USB.  This must be called
+     * before the matching request is sent, so that a fast reply can't slip
+     * past unnoticed.
+     * @param msb the address MSB of the expected bank (0 or 2)
+     */
+    public void expectBank(int msb) {
+        synchronized (pending) {
+            pending.put(msb, new CountDownLatch(1));
+            arrivals.remove(msb);
+        }
+    }
+
+    /**
+     * Waits until the bank registered with expectBank() has been applied to
+     * the Config, or until the timeout expires, whichever comes first.
+     * @param msb the address MSB of the expected bank
+     * @param timeout the maximum time to wait
+     * @param unit the unit of the timeout argument
+     * @return true if the bank was received, false if the timeout expired
+     * @throws InterruptedException if interrupted while waiting
+     * @throws IllegalStateException if the bank was never expected
+     */
+    public boolean awaitBank(int msb, long timeout, TimeUnit unit)
+            throws InterruptedException {
+        CountDownLatch latch;
+        synchronized (pending) {
+            latch = pending.get(msb);
+        }
+        if (latch == null)
+            throw new IllegalStateException("Bank " + msb + " was not expected");
+        return latch.await(timeout, unit);
+    }
+
+    /**
+     * Tells when the bank registered with expectBank() arrived, for timing
+     * the round trip.
+     * @param msb the address MSB of the expected bank
+     * @return the System.nanoTime() at which it was applied, or -1 if it
+     * hasn't been received
+     */
+    public long getArrivalTime(int msb) {
+        synchronized (pending) {
+            Long t = arrivals.get(msb);
+            return (t == null) ? -1 : t;
+        }
+    }
+
+    private void bankReceived(int banks) {
+        long now = System.nanoTime();
+        synchronized (pending) {
+            for (Map.Entry<Integer, CountDownLatch> e : pending.entrySet()) {
+                if ((banks & (1 << e.getKey())) != 0
+                        && e.getValue().getCount() > 0) {
+                    arrivals.put(e.getKey(), now);
+                    e.getValue().countDown();
+                }
+            }
         }
     }
 
@@ -74,5 +180,9 @@ public class UtilityReceiver implements javax.sound.midi.Receiver {
     public int getMessagesProcessed() {
         return messagesProcessed;
     }
-   
+
+    private final Map<Integer, CountDownLatch> pending = new HashMap<>();
+    private final Map<Integer, Long> arrivals = new HashMap<>();
+    private volatile EwiMetrics metrics = new EwiMetrics();
+    private volatile Receiver passThrough;
 }
@@ -0,0 +1,101 @@
+/*
+ * Copyright (C) 2016 Greg Lyons <greglyons50+github@gmail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package us.voxg.jewiusb;
+
+/**
+ * Counts 7-bit MIDI values (0-127) in one bin per value, so percentiles are
+ * exact and memory stays the same however long the histogram runs.  Not
+ * thread-safe; meant to be fed and read on one thread.
+ * @author Greg Lyons <greglyons50+github@gmail.com>
+ */
+public class ValueHistogram {
+    /**
+     * Counts one value.
+     * @param value the value (0-127)
+     */
+    public void add(int value) {
+        counts[value]++;
+        total++;
+    }
+
+    /**
+     * Returns the number of values counted.
+     * @return the count
+     */
+    public long getCount() {
+        return total;
+    }
+
+    /**
+     * Returns how many times a value was seen.
+     * @param value the value (0-127)
+     * @return its count
+     */
+    public long getCount(int value) {
+        return counts[value];
+    }
+
+    /**
+     * Returns the number of values counted at or above a floor.
+     * @param floor the lowest value to include
+     * @return the count
+     */
+    public long getCountFrom(int floor) {
+        long n = 0;
+        for (int v = floor; v < counts.length; v++) {
+            n += counts[v];
+        }
+        return n;
+    }
+
+    /**
+     * Returns the smallest value that the given fraction of the values at
+     * or above floor do not exceed.
+     * @param fraction the fraction, e.g. 0.95 for the 95th percentile
+     * @param floor the lowest value to consider, e.g. to ignore the resting
+     * level of a sensor
+     * @return the percentile, or -1 if nothing was counted at or above floor
+     */
+    public int percentile(double fraction, int floor) {
+        long n = getCountFrom(floor);
+        if (n == 0) {
+            return -1;
+        }
+        long rank = Math.max(1, (long)Math.ceil(fraction * n));
+        long seen = 0;
+        for (int v = floor; v < counts.length; v++) {
+            seen += counts[v];
+            if (seen >= rank) {
+                return v;
+            }
+        }
+        return counts.length - 1;
+    }
+
+    /**
+     * Discards every value counted.
+     */
+    public void clear() {
+        for (int v = 0; v < counts.length; v++) {
+            counts[v] = 0;
+        }
+        total = 0;
+    }
+
+    private final long[] counts = new long[128];
+    private long total = 0;
+}
@@ -0,0 +1,94 @@
+/*
+ * Copyright (C) 2016 Greg Lyons <greglyons50+github@gmail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package us.voxg.jewiusb;
+
+/**
+ * Describes the outcome of a verified write to the EWI-USB.
+ * @author Greg Lyons <greglyons50+github@gmail.com>
+ */
+public class WriteResult {
+    WriteResult(int attempts, int missingBanks, int mismatches0,
+            int mismatches2) {
+        this.attempts = attempts;
+        this.missingBanks = missingBanks;
+        this.mismatches0 = mismatches0;
+        this.mismatches2 = mismatches2;
+    }
+
+    /**
+     * Tells whether the EWI-USB was read back and found to hold every value
+     * that was written.
+     * @return true if the write was verified
+     */
+    public boolean isVerified() {
+        return missingBanks == 0 && mismatches0 == 0 && mismatches2 == 0;
+    }
+
+    /**
+     * Returns how many times the EWI-USB was written, including the first.
+     * @return the number of write attempts
+     */
+    public int getAttempts() {
+        return attempts;
+    }
+
+    /**
+     * Returns the banks that the EWI-USB did not send back in time on the
+     * last read-back.
+     * @return a bit set of banks (bit n for MSB n)
+     */
+    public int getMissingBanks() {
+        return missingBanks;
+    }
+
+    /**
+     * Returns the parameters of one bank that still differed from what was
+     * written on the last read-back.
+     * @param msb the address MSB of the bank (0 or 2)
+     * @return a bit set of parameters (bit n for LSB n)
+     */
+    public int getMismatches(int msb) {
+        return (msb == 0) ? mismatches0 : (msb == 2) ? mismatches2 : 0;
+    }
+
+    @Override
+    public String toString() {
+        if (isVerified()) {
+            return "Verified after " + attempts + " attempt(s)";
+        }
+        StringBuilder sb = new StringBuilder("Not verified after ");
+        sb.append(attempts).append(" attempt(s):");
+        if (missingBanks != 0) {
+            sb.append(" no reply for bank(s)");
+            for (int msb = 0; msb < 32; msb++) {
+                if ((missingBanks & (1 << msb)) != 0) {
+                    sb.append(' ').append(msb);
+                }
+            }
+            sb.append(';');
+        }
+        sb.append(" ").append(Integer.bitCount(mismatches0)
+                + Integer.bitCount(mismatches2));
+        sb.append(" parameter(s) differ");
+        return sb.toString();
+    }
+
+    private final int attempts;
+    private final int missingBanks;
+    private final int mismatches0;
+    private final int mismatches2;
+}
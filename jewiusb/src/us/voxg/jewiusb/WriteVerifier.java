@@ -0,0 +1,108 @@
+/*
+ * Copyright (C) 2016 Greg Lyons <greglyons50+github@gmail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package us.voxg.jewiusb;
+
+import java.util.concurrent.TimeUnit;
+import javax.sound.midi.InvalidMidiDataException;
+import javax.sound.midi.MidiUnavailableException;
+import javax.sound.midi.SysexMessage;
+
+/**
+ * Writes to the EWI-USB and then reads the banks back to check that they
+ * took.  Parameters that came back wrong (or banks that didn't come back at
+ * all) are written again, up to a fixed number of retries.  Must be used on
+ * the MIDI I/O thread, like the session it wraps.
+ * @author Greg Lyons <greglyons50+github@gmail.com>
+ */
+public class WriteVerifier {
+    /**
+     * Creates a verifier.
+     * @param s the session to write and read through; both MIDI IN and OUT
+     * must be selected
+     * @param timeoutMillis how long to wait for each read-back
+     * @param retries how many times to rewrite mismatched values
+     */
+    public WriteVerifier(EwiSession s, long timeoutMillis, int retries) {
+        session = s;
+        timeout = timeoutMillis;
+        maxRetries = retries;
+    }
+
+    /**
+     * Sends the messages, then reads back and rewrites until the EWI-USB
+     * matches expected or the retries run out.
+     * @param expected the values the EWI-USB should hold afterwards
+     * @param messages the initial writes, e.g. from Config.toDirtySysex()
+     * @return what was achieved
+     * @throws InvalidMidiDataException if a message can't be built
+     * @throws MidiUnavailableException if a device can't be opened
+     * @throws InterruptedException if interrupted while waiting
+     */
+    @SuppressWarnings("try")
+    public WriteResult write(Config expected, SysexMessage[] messages)
+            throws InvalidMidiDataException, MidiUnavailableException,
+                   InterruptedException {
+        UtilityReceiver listener = session.getListener();
+        int attempts = 0;
+        // Every write and read-back shares one trip into sysex mode
+        try (SysexTransaction sysex = session.beginSysex()) {
+            while (true) {
+                session.writeBanks(messages);
+                attempts++;
+                Config actual = new Config();
+                Config previous = listener.getConfig();
+                listener.setConfig(actual);
+                int received;
+                try {
+                    received = session.readBanks(timeout, TimeUnit.MILLISECONDS,
+                            0, 2);
+                } finally {
+                    listener.setConfig(previous);
+                }
+                int missing = BANKS & ~received;
+                int mismatches0 = ((missing & 1) != 0) ? 0
+                        : expected.differences(actual, 0);
+                int mismatches2 = ((missing & 4) != 0) ? 0
+                        : expected.differences(actual, 2);
+                WriteResult result = new WriteResult(attempts, missing,
+                        mismatches0, mismatches2);
+                if (result.isVerified() || attempts > maxRetries) {
+                    return result;
+                }
+                session.getMetrics().retried();
+                if (mismatches0 != 0 || mismatches2 != 0) {
+                    // Values that didn't take were likely dropped on the way
+                    session.getPacer().lost();
+                }
+                // Rewrite only what came back wrong, or whole banks that didn't
+                // come back at all
+                Config retry = new Config(expected);
+                retry.markClean();
+                retry.markDirty(0, ((missing & 1) != 0) ? ALL : mismatches0);
+                retry.markDirty(2, ((missing & 4) != 0) ? ALL : mismatches2);
+                messages = retry.toDirtySysex();
+            }
+        }
+    }
+
+    private static final int BANKS = (1 << 0) | (1 << 2);
+    private static final int ALL = -1;
+
+    private final EwiSession session;
+    private final long timeout;
+    private final int maxRetries;
+}